@@ -0,0 +1 @@
+java -cp ".;classes;src/resources;lib/*" gui.Headless %*
@@ -34,7 +34,7 @@ import static statistics.Statistic.Type.*;
  *    buildTime   - total time required to build house
  *
  */
-public class Builder extends Company
+public class Builder extends Company implements Schedulable
 {
   @Expose private int buildTime       = 100;
   private int  HOUSE_TTL      = 120;
@@ -247,6 +247,28 @@ System.out.println(name + " req loan for " + totalLoan  + "/" + buildTime*2);
     payTax(govt.corporateTaxRate, govt.corporateCutoff);
   }
 
+  /**
+   * While a house is being built, and none are for sale, the builder
+   * only acts at the end of the month, when salaries and any loan
+   * installments are paid. A loan in default is paid every step.
+   *
+   * @param step step just evaluated
+   * @return next step to evaluate
+   */
+  public int nextWake(int step)
+  {
+    if (!building || markets.getMarket(product).getTotalItems() > 0)
+      return step + 1;
+
+    for (Loan loan : getAccount().debts.values())
+    {
+      if (loan.defaultCount != 0)
+        return step + 1;
+    }
+
+    return (step / Time.MONTH.period() + 1) * Time.MONTH.period();
+  }
+
   public void print(String label)
   {
     if (label != null)
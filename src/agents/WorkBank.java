@@ -31,6 +31,8 @@ public class WorkBank extends Bank
 {
   double incomePctage = 0.20;
 
+  private transient LedgerTable ledgers = null;   // Resolved on first use
+
   public WorkBank(String name, Govt g, Bank b)
   {
      super(name, g, b);
@@ -66,13 +68,15 @@ public class WorkBank extends Bank
 
       long labourcost = markets.getMarket("Labour").getAskPrice();
 
-      if(employees.size() * gl.ledger("interest_income").total()
-                                   > labourcost * 12 * employees.size())
+      ledgers = LedgerTable.of(ledgers, this);
+
+      long income = ledgers.total(LedgerSlot.INTEREST_INCOME);
+
+      if(employees.size() * income > labourcost * 12 * employees.size())
       {
          hireEmployee();
       }
-      else if(employees.size() * gl.ledger("interest_income").total() 
-                                  > labourcost * 2 * employees.size())
+      else if(employees.size() * income > labourcost * 2 * employees.size())
       {
          fireEmployee();
       }
@@ -46,6 +46,10 @@ public final class Base
 
   public static Random random = new Random(seed);
 
+  // Give each agent its own random stream in each step, see StreamRandom.
+
+  public static boolean streams = false;
+
   public static  String         debugFileName  = null;
   public static  boolean        debug_internal = false; 
   private static BufferedWriter debugfptr      = null;
@@ -55,11 +59,16 @@ public final class Base
   // Default deposits (of money) for initialisation.
   public static long DEFAULT_MARKET_DEPOSIT = 100;
 
-  // This puts an implicit limit on the number of Agents in a single instance
-  // of 1,000,000. 
+  // Agent ids are issued from 1 up to agentLimit, and widget ids from the
+  // limit up, so the two never overlap. When more agents are to be created
+  // than will fit, reserveIDs() moves the agent ids to a new block after
+  // the widget ids issued so far, and the widget ids past it.
 
-  private static Integer latestId = 1;        // Agent id base
-  private static Integer wid      = 1000000;  // Widget id base
+  private static final int WIDGET_BASE = 1000000;
+
+  private static Integer latestId   = 1;            // Agent id base
+  private static Integer wid        = WIDGET_BASE;  // Widget id base
+  private static int     agentLimit = WIDGET_BASE;  // End of agent ids
 
   // Provide user friendly time periods for interaction with simulation
 
@@ -90,14 +99,28 @@ public final class Base
   };
 
 
+  // Phases of a simulation step, used to select random streams.
+
+  public enum Phase
+  {
+     SHUFFLE,
+     GOVT,
+     MARKETS,
+     COMPANIES,
+     PERSONS,
+     BANKS;
+  };
+
+
   /**
    * Reset base parameters back to initial configuration.
    */
   public static void resetAll()
   {
     step     = 1;
-    latestId = 1;
-    wid      = 1000000;
+    latestId   = 1;
+    wid        = WIDGET_BASE;
+    agentLimit = WIDGET_BASE;
   }
 
   /**
@@ -223,7 +246,32 @@ public final class Base
   public static void setRandom(int s)
   {
     seed = s;
-    random = new Random(seed);
+    random = streams ? new StreamRandom(seed) : new Random(seed);
+  }
+
+  /**
+   * Turn per-agent random streams on or off. The generator is restarted
+   * from the current seed.
+   *
+   * @param on t/f use per-agent streams
+   */
+  public static void setStreams(boolean on)
+  {
+    streams = on;
+    setRandom(seed);
+  }
+
+  /**
+   * Select the random stream for the current thread when per-agent
+   * streams are enabled, otherwise does nothing.
+   *
+   * @param phase Phase of step
+   * @param key   Agent Id or other key within phase
+   */
+  public static void selectStream(Phase phase, int key)
+  {
+    if (random instanceof StreamRandom)
+      ((StreamRandom) random).select(step, phase.ordinal(), key);
   }
 
   /**
@@ -233,9 +281,36 @@ public final class Base
    */
   public static int assignID()
   {
+    if (latestId >= agentLimit)
+      throw new RuntimeException("Agent ids exhausted at " + latestId
+                                 + ": use Base.reserveIDs()");
     return latestId++;
   }
 
+  /**
+   * Reserve ids for n more agents, moving the agent ids to a new block if
+   * they will not fit in the current one.
+   *
+   * @param n Number of agents to be created
+   */
+  public static void reserveIDs(int n)
+  {
+    if ((long) latestId + n <= agentLimit)
+      return;
+
+    // Round up to a multiple of the default base, for readable ids
+
+    long limit = ((long) wid + n + WIDGET_BASE - 1) / WIDGET_BASE
+                 * WIDGET_BASE;
+
+    if (limit > Integer.MAX_VALUE / 2)
+      throw new RuntimeException("Too many agents: " + n);
+
+    latestId   = wid;
+    agentLimit = (int) limit;
+    wid        = agentLimit;
+  }
+
   /**
    * Public ability to set the ID for loading from file.
    *
@@ -265,6 +340,9 @@ public final class Base
 
   public static int assignWidgetID()
   {
+    if (wid == Integer.MAX_VALUE)
+      throw new RuntimeException("Widget ids exhausted at " + wid);
+
     return wid++;
   }
 
@@ -0,0 +1,172 @@
+/* Program: Threadneedle
+ *
+ * StreamRandom : random number generator providing an independent,
+ *                deterministic stream for every agent in every step.
+ *
+ * Agents draw random numbers from Base.random. When per-agent streams are
+ * enabled Base.random is a StreamRandom, and the simulation engine selects
+ * the stream belonging to the agent (and phase of the step) before it is
+ * evaluated. Each stream is derived only from the run seed, the step, the
+ * phase and the agent's Id, so the numbers an agent sees do not depend on
+ * how many other agents drew before it, or on which thread it runs. This
+ * makes results independent of evaluation order.
+ *
+ * Streams are SplitMix64 generators; the stream selected is held per
+ * thread.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package base;
+
+import java.util.Random;
+
+public class StreamRandom extends Random
+{
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+  private long root;                     // Seed all streams derive from
+  private int  epoch;                    // Incremented on setSeed
+
+  /**
+   * Current stream for a thread.
+   */
+  private static class Stream
+  {
+    long    state;
+    int     epoch = -1;
+    boolean haveGaussian = false;
+    double  gaussian;
+  }
+
+  private final transient ThreadLocal<Stream> current
+    = ThreadLocal.withInitial(Stream::new);
+
+  /**
+   * Constructor
+   *
+   * @param seed Seed for all streams
+   */
+  public StreamRandom(long seed)
+  {
+    super(seed);                         // Calls setSeed()
+  }
+
+  /**
+   * Set the seed streams are derived from. Streams already selected on
+   * any thread are restarted from the new seed.
+   *
+   * @param seed seed
+   */
+  @Override
+  public synchronized void setSeed(long seed)
+  {
+    root = seed;
+    epoch++;
+  }
+
+  /**
+   * Select the stream used by this thread until the next select.
+   *
+   * @param step  Simulation step
+   * @param phase Phase within step
+   * @param key   Key within phase, normally the agent's Id
+   */
+  public void select(int step, int phase, long key)
+  {
+    Stream s = current.get();
+
+    s.state = stream(step, phase, key);
+    s.epoch = epoch;
+    s.haveGaussian = false;
+  }
+
+  /**
+   * Return the initial state of the identified stream.
+   */
+  private long stream(int step, int phase, long key)
+  {
+    long z = mix(root);
+
+    z = mix(z ^ (step  * GOLDEN));
+    z = mix(z ^ (phase * GOLDEN));
+    return mix(z ^ key);
+  }
+
+  @Override
+  protected int next(int bits)
+  {
+    Stream s = current.get();
+
+    if (s.epoch != epoch)                // Nothing selected yet
+    {
+      s.state = stream(0, 0, 0);
+      s.epoch = epoch;
+      s.haveGaussian = false;
+    }
+
+    s.state += GOLDEN;
+    return (int) (mix(s.state) >>> (64 - bits));
+  }
+
+  /**
+   * Gaussian values are generated in pairs; the spare value must belong
+   * to the stream that generated it, rather than being shared between
+   * threads as it is in Random.
+   */
+  @Override
+  public double nextGaussian()
+  {
+    Stream s = current.get();
+
+    if (s.haveGaussian && s.epoch == epoch)
+    {
+      s.haveGaussian = false;
+      return s.gaussian;
+    }
+
+    double v1, v2, r;
+
+    do
+    {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      r  = v1 * v1 + v2 * v2;
+    } while (r >= 1 || r == 0);
+
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(r) / r);
+
+    s.gaussian     = v2 * multiplier;
+    s.haveGaussian = true;
+
+    return v1 * multiplier;
+  }
+
+  /**
+   * Streams selected on each thread are not serialized; a deserialized
+   * generator restarts them from the seed.
+   */
+  private Object readResolve()
+  {
+    return new StreamRandom(root);
+  }
+
+  /**
+   * SplitMix64 finaliser.
+   */
+  private static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
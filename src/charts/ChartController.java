@@ -16,7 +16,6 @@
 
 package charts;
 
-import javafx.collections.MapChangeListener;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -28,6 +27,8 @@ import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.FlowPane;
 import javafx.stage.Stage;
+import statistics.LatencyHistogram;
+import statistics.Profiler;
 import statistics.Statistic;
 
 import javax.imageio.ImageIO;
@@ -63,6 +64,8 @@ public class ChartController extends Stage implements Initializable
 
   public static HashMap<String, StepChart> charts = new HashMap<>();
 
+  private static final LatencyHistogram T_CHARTS = Profiler.phase("charts");
+
   private ChartConfig cc = null;
 
   public ChartController()
@@ -124,30 +127,20 @@ public class ChartController extends Stage implements Initializable
      * Listener for statistics which are grouped into particular charts
      */
 
-    Statistic.obsNames.addListener((MapChangeListener<String, Statistic>) change -> {
-      StepChart chart;
-      Statistic stat;
-
-      // Look for new statistics with a group matching a known
-      // chart.
-      if (change.wasAdded())
+    Statistic.addListener(stats -> {
+      for (Statistic stat : stats)
       {
-        stat = change.getValueAdded();
+        StepChart chart;
+
+        // Look for new statistics with a group matching a known
+        // chart.
         if (stat.group != null)
           chart = charts.get(stat.group);
         else
           chart = charts.get(stat.name);
-          if (chart != null)
-          {
-            addSeries(chart, stat.name, stat);
-          }
-          else
-          {
-            //System.out.println("No chart for statistics group " + stat.group + " " + stat.name);
-            //System.out.println("Defined charts are: ");
-            //for(StepChart c : charts.values())
-            //    System.out.println("\t" + c.getTitle() + " " + c.getId());
-          }
+
+        if (chart != null)
+          addSeries(chart, stat.name, stat);
       }
     });
   }
@@ -208,7 +201,7 @@ public class ChartController extends Stage implements Initializable
 
     if (chart != null)
     {
-      chart.enabled = enable;
+      chart.setEnabled(enable);
     }
     else
       System.out.println("No chart registered with name: " + chartname);
@@ -319,8 +312,12 @@ public class ChartController extends Stage implements Initializable
    */
   public void inc_x()
   {
+    long t = System.nanoTime();
+
     for (StepChart chart : charts.values())
       chart.inc_x();
+
+    Profiler.lap(T_CHARTS, t);
   }
 
   public static void saveCsv(String filename, StepChart chart) throws IOException
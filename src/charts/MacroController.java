@@ -16,7 +16,6 @@
 
 package charts;
 
-import javafx.collections.MapChangeListener;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -116,31 +115,20 @@ public class MacroController extends Stage implements Initializable
      * Listener for statistics which are grouped into particular charts
      */
 
-    Statistic.obsNames.addListener((MapChangeListener<String, Statistic>) change -> {
-      StepChart chart;
-      Statistic stat;
-
-      // Look for new statistics with a group matching a chart in this
-      // controller's list (derived from fxml file)
-      if (change.wasAdded())
+    Statistic.addListener(stats -> {
+      for (Statistic stat : stats)
       {
-        stat = change.getValueAdded();
+        StepChart chart;
 
+        // Look for new statistics with a group matching a chart in this
+        // controller's list (derived from fxml file)
         if (stat.group != null)
           chart = charts.get(stat.group);
         else
           chart = charts.get(stat.name);
-          if (chart != null)
-          {
-            addSeries(chart, stat.name, stat);
-          }
-          else
-          {
-            //System.out.println("No chart for statistics group " + stat.group + " " + stat.name);
-            //System.out.println("Defined charts are: ");
-            //for(StepChart c : charts.values())
-            //    System.out.println("\t" + c.getTitle() + " " + c.getId());
-          }
+
+        if (chart != null)
+          addSeries(chart, stat.name, stat);
       }
     });
   }
@@ -200,7 +188,7 @@ public class MacroController extends Stage implements Initializable
 
     if (chart != null)
     {
-      chart.enabled = enable;
+      chart.setEnabled(enable);
     }
     else
       System.out.println("No chart registered with name: " + chartname);
@@ -24,6 +24,7 @@ import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.input.MouseEvent;
+import statistics.Decimator;
 import statistics.Statistic;
 
 import java.io.BufferedWriter;
@@ -116,7 +117,7 @@ public class StepChart extends LineChart
           {
             for (String name : change.getAddedSubList())
             {
-              Statistic statistic = Statistic.getStatistic(name);
+              Statistic statistic = Statistic.resolve(name);
 
               if (statistic != null)
               {
@@ -150,6 +151,8 @@ public class StepChart extends LineChart
   {
     super(new NumberAxis(), new NumberAxis());
 
+    enabled = false;                 // Nb. copy does not subscribe
+
     setData(chartData);
     setLegendVisible(true);
     setCache(true);
@@ -186,13 +189,18 @@ public class StepChart extends LineChart
       }
     });
 
+    // Nb. at most one point per pixel is plotted, from the statistic's
+    //     downsampled history if it is long (see Decimator)
+
     for(StepSeries stepseries : chart.series.values())
     {
        addSeries(stepseries.stat.name, stepseries.stat);
 
-       for(int i = 0; i < stepseries.stat.size(); i++)
+       long[][] history = Decimator.view(stepseries.stat, maxwidth);
+
+       for(int i = 0; i < history[0].length; i++)
        {
-         XYChart.Data data = new XYChart.Data<>((long) (stepseries.stat.size() - i), stepseries.stat.get(i));
+         XYChart.Data data = new XYChart.Data<>(history[0][i], history[1][i]);
          this.series.get(stepseries.stat.name).series.getData().add(data);
 
          if((Long)data.getYValue() > yAxis.getUpperBound())
@@ -231,6 +239,7 @@ public class StepChart extends LineChart
     {
       s.series.getData().clear(); // clear the underlying list
       String name = s.stat.name;
+      Statistic old = s.stat;
       // get updated statistic
       s.stat = Statistic.getStatistic(s.stat.name, s.stat.group, s.stat.type);
 
@@ -239,6 +248,12 @@ public class StepChart extends LineChart
         throw new RuntimeException("Error: No statistic matching "
                                    + name);
       }
+
+      if (enabled && s.stat != old)
+      {
+        old.unsubscribe();
+        s.stat.subscribe();
+      }
     }
 
     NumberAxis xAxis = (NumberAxis) getXAxis();
@@ -294,12 +309,30 @@ public class StepChart extends LineChart
       if (stat == null)
         sumSeries = new StepSeries(s, null);
       else
+      {
         series.put(name, new StepSeries(s, stat));
 
+        if (enabled)
+          stat.subscribe();
+      }
+
       updateLegend();
     }
   }
 
+  /**
+   * Return the statistic charted by a series.
+   *
+   * @param name Name of series
+   * @return statistic, null if there is no such series
+   */
+  public Statistic getSeries(String name)
+  {
+    StepSeries s = series.get(name);
+
+    return s == null ? null : s.stat;
+  }
+
   /**
    * Update chart with latest point(s) in its statistics. Turn on auto-ranging
    * when data starts arriving.
@@ -405,7 +438,26 @@ public class StepChart extends LineChart
    * FXML setters/getters
    */
 
-  public void setEnabled(boolean value) { enabled = value; }
+  /**
+   * Enable or disable chart. An enabled chart subscribes to its statistics,
+   * so that lazy statistics are computed for it.
+   *
+   * @param value t/f enabled
+   */
+  public void setEnabled(boolean value)
+  {
+    if (value != enabled)
+    {
+      for (StepSeries s : series.values())
+      {
+        if (value)
+          s.stat.subscribe();
+        else
+          s.stat.unsubscribe();
+      }
+    }
+    enabled = value;
+  }
 
   public boolean getEnabled() { return enabled; }
 
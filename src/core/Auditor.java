@@ -0,0 +1,615 @@
+/* Program : Threadneedle
+ *
+ * Auditor : Check the banks' books as transactions are posted, and
+ *           reconcile them in full every n steps.
+ *
+ * While an auditor is set (see setAuditor()), each ledger's transactions
+ * list is wrapped in a Tap, which sees every entry posted to the ledger.
+ * An entry is a debit if the ledger holds the transaction's debit account
+ * (or the transaction's other entry was a credit), and changes the
+ * ledger's balance by amount * debitPolarity(), a credit by amount *
+ * creditPolarity(). Since ASSET ledgers have the opposite polarity to
+ * LIABILITY and EQUITY ledgers, every debit raises assets - (liabilities +
+ * equity) by its amount and every credit lowers it, so that for each bank
+ * the books stay balanced as long as its debits equal its credits. At the
+ * cost of a few additions per entry, therefore:
+ *
+ *   - each ledger's balance is tracked, and must keep the sign of its
+ *     account type (polarity)
+ *   - each bank's debits less credits are tracked, and checked to be 0
+ *     at the end of every step (assets = liabilities + equity)
+ *
+ * The same taps keep the deposit totals set (see setTotals()) current,
+ * whether or not an auditor is set.
+ *
+ * Every n steps the accounts of every ledger are copied at the end of the
+ * step, and reconciled in a background thread as GeneralLedger.audit()
+ * and auditAccounts() would: each ledger's total against its tracked
+ * balance, the banks' totals, and accounts held by more than one ledger,
+ * or by a ledger other than their own. Tracked balances which differ are
+ * corrected from the audit. The first step each check failed at is
+ * reported, for a full audit as the range of steps since the last clean
+ * one. With a single processor the full audit is made on the simulation
+ * thread.
+ *
+ * Author  : Jacky Mallett
+ * Date    : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package core;
+
+import base.Base;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Auditor
+{
+  private static final int QUEUE = 2;          // Max. snapshots waiting
+
+  private static Auditor       auditor = null; // Auditor set
+  private static DepositTotals totals  = null; // Deposit totals set
+
+  private final int every;                     // Steps between full audits
+
+  private final IdentityHashMap<Bank, Books> books = new IdentityHashMap<>();
+
+  private Transaction last     = null;         // Transaction of last entry
+  private boolean     lastDebit;
+
+  private long postings = 0;                   // Entries seen
+  private int  polarity = -1;                  // First step checks failed
+  private int  balance  = -1;
+
+  private final ExecutorService background;    // null if single processor
+  private final AtomicInteger   queued  = new AtomicInteger();
+  private int                   skipped = 0;   // Snapshots not taken
+
+  // Tracked balances found wrong by full audits, applied on the simulation
+  // thread: {tap, correction}
+
+  private final ArrayList<Object[]> corrections = new ArrayList<>();
+
+  // Full audit results, written by the background thread
+
+  private volatile int  audits   = 0;
+  private volatile int  audited  = -1;         // Step of last full audit
+  private volatile int  clean    = -1;         // Last step audited clean
+  private volatile int  diverged = -1;         // First audit failed
+  private volatile int  after    = -1;         // Last clean audit before it
+  private boolean       failing  = false;      // Last audit failed
+
+  /**
+   * A bank's books.
+   */
+  private static final class Books
+  {
+    final Bank bank;
+    long       net        = 0;                 // Debits - credits
+    int        unbalanced = -1;                // First step net != 0
+
+    Books(Bank bank)
+    {
+      this.bank = bank;
+    }
+  }
+
+  /**
+   * A ledger's transactions, seen by the auditor and deposit totals as
+   * they are posted. Nb. the fields are transient, so a checkpoint
+   * restores an empty, detached tap, which attach() replaces.
+   */
+  public static final class Tap extends AbstractList<Transaction>
+    implements RandomAccess
+  {
+    private final transient Auditor       auditor;   // null if not audited
+    private final transient DepositTotals totals;    // null if none
+    private final transient Ledger        ledger;
+    private final transient Books         books;
+
+    private transient List<Transaction> list;  // Transactions kept
+    private transient long balance;            // Tracked ledger balance
+    private transient int  negative = -1;      // First step balance < 0
+
+    private Tap(Auditor auditor, DepositTotals totals, Ledger ledger,
+                Books books, List<Transaction> list)
+    {
+      this.auditor = auditor;
+      this.totals  = totals;
+      this.ledger  = ledger;
+      this.books   = books;
+      this.list    = list;
+      this.balance = ledger.total();
+    }
+
+    @Override
+    public boolean add(Transaction t)
+    {
+      if (auditor != null)
+        auditor.post(this, t);
+
+      if (totals != null && ledger.accountId < 0)
+        totals.posted(ledger, t);
+
+      if (list != null && (list instanceof Journal.Chain || Journal.listed()))
+        list.add(t);
+
+      return true;
+    }
+
+    @Override
+    public Transaction get(int i)
+    {
+      if (list == null)
+        throw new IndexOutOfBoundsException("Index: " + i + " Size: 0");
+
+      return list.get(i);
+    }
+
+    @Override
+    public int size()
+    {
+      return list == null ? 0 : list.size();
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param every No. of steps between full audits, 0 for none
+   */
+  public Auditor(int every)
+  {
+    this.every = Math.max(0, every);
+
+    // With one processor the handover to another thread costs more than
+    // the audit, so it is done on the caller's
+
+    if (Runtime.getRuntime().availableProcessors() < 2)
+      background = null;
+    else
+      background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setName("Auditor-" + t.getId());
+        t.setDaemon(true);
+        return t;
+      });
+  }
+
+  /**
+   * Audit the books from now on, stopping the auditor previously set, if
+   * any. Transactions are posted to ledgers (Ledger.postTransactions)
+   * while an auditor is set. The ledgers are tapped and released by
+   * attach().
+   *
+   * @param a Auditor, or null to stop auditing
+   */
+  public static void setAuditor(Auditor a)
+  {
+    if (auditor != null && auditor != a)
+      auditor.close();
+
+    if (auditor == null && a != null)
+      Journal.hook(true);
+    else if (auditor != null && a == null)
+      Journal.hook(false);
+
+    auditor = a;
+  }
+
+  /**
+   * @return auditor set, null if none
+   */
+  public static Auditor getAuditor()
+  {
+    return auditor;
+  }
+
+  /**
+   * Keep deposit totals from the entries posted from now on, replacing the
+   * totals previously set, if any. Transactions are posted to ledgers
+   * (Ledger.postTransactions) while totals are set. The ledgers are tapped
+   * and released by attach().
+   *
+   * @param t Deposit totals, or null to stop keeping them
+   */
+  static void setTotals(DepositTotals t)
+  {
+    if (totals == null && t != null)
+      Journal.hook(true);
+    else if (totals != null && t == null)
+      Journal.hook(false);
+
+    totals = t;
+  }
+
+  /**
+   * Tap every bank's ledgers for the auditor and deposit totals set, or if
+   * neither is set, release them. Called at the start of each step, so
+   * that ledgers created since are included, and their balance taken from
+   * then.
+   *
+   * @param govt Government whose banks are audited
+   */
+  public static void attach(Govt govt)
+  {
+    if (govt == null)
+      return;
+
+    if (auditor != null)
+      auditor.books.keySet().retainAll(Journal.banks(govt));
+
+    for (Bank bank : Journal.banks(govt))
+    {
+      for (Ledger ledger : bank.gl.ledgers.values())
+      {
+        List<Transaction> list = ledger.transactions;
+
+        if (auditor == null && totals == null)
+        {
+          if (list instanceof Tap)
+            ledger.transactions = inner(ledger);
+        }
+        else if (!(list instanceof Tap && ((Tap) list).auditor == auditor
+                   && ((Tap) list).totals == totals))
+        {
+          Books b = auditor == null ? null
+                                    : auditor.books.computeIfAbsent(bank,
+                                                                    Books::new);
+
+          ledger.transactions = new Tap(auditor, totals, ledger, b,
+                                        inner(ledger));
+
+          if (totals != null)          // Postings before now not seen
+            totals.invalidate();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return ledger's transactions list, within its tap if any, a new list
+   *         if a restored tap holds none
+   */
+  static List<Transaction> inner(Ledger ledger)
+  {
+    if (!(ledger.transactions instanceof Tap))
+      return ledger.transactions;
+
+    Tap tap = (Tap) ledger.transactions;
+
+    if (tap.list == null)
+      tap.list = new ArrayList<>();
+
+    return tap.list;
+  }
+
+  /**
+   * Replace ledger's transactions list, within its tap if any.
+   */
+  static void setInner(Ledger ledger, List<Transaction> list)
+  {
+    if (ledger.transactions instanceof Tap)
+      ((Tap) ledger.transactions).list = list;
+    else
+      ledger.transactions = list;
+  }
+
+  /**
+   * Track entry posted to tapped ledger.
+   */
+  private void post(Tap tap, Transaction t)
+  {
+    Ledger  l = tap.ledger;
+    boolean debit;
+
+    if (t == last)                             // Other entry of transaction
+    {
+      debit = !lastDebit;
+      last  = null;
+    }
+    else
+    {
+      debit = l.accountId == t.debitAccountId
+              || l.accountId < 0 && l.accounts.containsKey(t.debitAccountId);
+
+      last      = t;
+      lastDebit = debit;
+    }
+
+    tap.balance    += (debit ? l.debitPolarity() : l.creditPolarity()) * t.amount;
+    tap.books.net  += debit ? t.amount : -t.amount;
+    postings++;
+
+    if (tap.balance < 0 && tap.negative < 0)
+    {
+      tap.negative = Base.step;
+
+      if (polarity < 0)
+        polarity = Base.step;
+
+      System.out.println("Audit: " + tap.books.bank.name + " " + l.name
+                         + " balance " + tap.balance + " has wrong polarity at"
+                         + " step " + Base.step + " [" + t + "]");
+    }
+  }
+
+  /**
+   * Check the banks' books at the end of a step, and start a full audit if
+   * one is due.
+   */
+  public void endStep()
+  {
+    correct();
+
+    for (Books b : books.values())
+    {
+      if (b.net != 0 && b.unbalanced < 0)
+      {
+        b.unbalanced = Base.step;
+
+        if (balance < 0)
+          balance = Base.step;
+
+        System.out.println("Audit: " + b.bank.name + " books unbalanced at step "
+                           + Base.step + ": debits - credits " + b.net);
+      }
+    }
+
+    if (every > 0 && Base.step % every == 0)
+    {
+      if (background == null)
+        reconcile(new Snapshot(Base.step));
+      else if (queued.get() >= QUEUE)
+        skipped++;
+      else
+      {
+        queued.incrementAndGet();
+
+        final Snapshot s = new Snapshot(Base.step);
+
+        background.execute(() -> {
+          try
+          {
+            reconcile(s);
+          }
+          finally
+          {
+            queued.decrementAndGet();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Accounts of every tapped ledger at the end of a step.
+   */
+  private final class Snapshot
+  {
+    final int            step;
+    final ArrayList<Tap> taps   = new ArrayList<>();
+    final long[]         tracked;
+    final long[][]       values;                    // Per account, by tap
+    final int[][]        ids;
+    final boolean[][]    misfiled;                  // Account's ledger name
+
+    Snapshot(int step)
+    {
+      this.step = step;
+
+      for (Books b : books.values())
+        for (Ledger l : b.bank.gl.ledgers.values())
+          if (l.transactions instanceof Tap
+              && ((Tap) l.transactions).auditor == Auditor.this)
+            taps.add((Tap) l.transactions);
+
+      tracked  = new long[taps.size()];
+      values   = new long[taps.size()][];
+      ids      = new int[taps.size()][];
+      misfiled = new boolean[taps.size()][];
+
+      for (int i = 0; i < taps.size(); i++)
+      {
+        Ledger l = taps.get(i).ledger;
+        int    n = l.accounts.size();
+        int    k = 0;
+
+        tracked[i]  = taps.get(i).balance;
+        values[i]   = new long[n];
+        ids[i]      = new int[n];
+        misfiled[i] = new boolean[n];
+
+        for (Account a : l.accounts.values())
+        {
+          values[i][k]   = value(l, a);
+          ids[i][k]      = a.accountId;
+          misfiled[i][k] = !l.name.equals(a.ledger);
+          k++;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return account's contribution to the ledger's total, as Ledger.total()
+   */
+  private static long value(Ledger l, Account a)
+  {
+    switch (l.getLedgerType())
+    {
+      case LOAN:
+        return l.getType() == AccountType.ASSET ? a.getTotalCapital()
+                                                : a.getTotalDebt();
+      case CAPITAL:
+        return a.getTotalCapital()
+               + (l.getType() == AccountType.EQUITY ? a.deposit : 0);
+
+      default:
+        return a.deposit;
+    }
+  }
+
+  /**
+   * Full audit of a snapshot, in the background thread.
+   */
+  private void reconcile(Snapshot s)
+  {
+    ArrayList<String>              errors = new ArrayList<>();
+    IdentityHashMap<Books, long[]> sheets = new IdentityHashMap<>();
+    IdentityHashMap<Books, HashMap<Integer, Ledger>> held
+      = new IdentityHashMap<>();
+
+    for (int i = 0; i < s.taps.size(); i++)
+    {
+      Tap    tap   = s.taps.get(i);
+      Ledger l     = tap.ledger;
+      String name  = tap.books.bank.name + " " + l.name;
+      long   total = 0;
+
+      HashMap<Integer, Ledger> ids = held.computeIfAbsent(tap.books,
+                                                          b -> new HashMap<>());
+
+      for (int k = 0; k < s.values[i].length; k++)
+      {
+        total += s.values[i][k];
+
+        Ledger other = ids.put(s.ids[i][k], l);
+
+        if (other != null && other != l)
+          errors.add(name + " account " + s.ids[i][k] + " also in "
+                     + other.name);
+
+        if (s.misfiled[i][k])
+          errors.add(name + " account " + s.ids[i][k]
+                     + " belongs to another ledger");
+      }
+
+      if (total != s.tracked[i])
+      {
+        errors.add(name + " total " + total + " tracked " + s.tracked[i]);
+
+        synchronized (this)
+        {
+          corrections.add(new Object[] {tap, total - s.tracked[i]});
+        }
+      }
+
+      long[] sheet = sheets.computeIfAbsent(tap.books, b -> new long[3]);
+
+      sheet[l.getType().ordinal()] += total;
+    }
+
+    for (Map.Entry<Books, long[]> e : sheets.entrySet())
+    {
+      long[] sheet = e.getValue();
+      long   a     = sheet[AccountType.ASSET.ordinal()];
+      long   le    = sheet[AccountType.LIABILITY.ordinal()]
+                     + sheet[AccountType.EQUITY.ordinal()];
+
+      if (a != le)
+        errors.add(e.getKey().bank.name + " assets " + a
+                   + " liabilities + equity " + le);
+    }
+
+    audits++;
+    audited = s.step;
+
+    if (errors.isEmpty())
+    {
+      clean   = s.step;
+      failing = false;
+      return;
+    }
+
+    if (diverged < 0)
+    {
+      diverged = s.step;
+      after    = clean;
+    }
+
+    if (failing)                         // Reported when it started
+      return;
+
+    failing = true;
+
+    System.out.println("Audit at step " + s.step + " failed, books diverged "
+                       + (clean < 0 ? "by" : "after step " + clean + " and by")
+                       + " step " + s.step + ":");
+
+    for (String error : errors)
+      System.out.println("\t" + error);
+  }
+
+  /**
+   * Apply corrections from full audits to tracked balances.
+   */
+  private synchronized void correct()
+  {
+    for (Object[] c : corrections)
+      ((Tap) c[0]).balance += (Long) c[1];
+
+    corrections.clear();
+  }
+
+  /**
+   * Wait for full audits in progress, and stop the background thread.
+   */
+  void close()
+  {
+    if (background == null)
+      return;
+
+    background.shutdown();
+
+    try
+    {
+      background.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return report of checks since the auditor was set
+   */
+  public String report()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("Entries checked: ").append(postings).append('\n');
+    sb.append("Ledger polarity: ")
+      .append(polarity < 0 ? "ok" : "failed at step " + polarity).append('\n');
+    sb.append("Debits = credits: ")
+      .append(balance < 0 ? "ok" : "failed at step " + balance).append('\n');
+
+    if (every == 0)
+      sb.append("Full audits: off\n");
+    else
+    {
+      sb.append("Full audits every ").append(every).append(" steps: ")
+        .append(audits).append(", last at step ").append(audited);
+
+      if (skipped > 0)
+        sb.append(", ").append(skipped).append(" skipped while busy");
+
+      sb.append('\n');
+
+      if (diverged >= 0)
+        sb.append("Books diverged ")
+          .append(after < 0 ? "by" : "after step " + after + " and by")
+          .append(" step ").append(diverged).append('\n');
+    }
+    return sb.toString();
+  }
+}
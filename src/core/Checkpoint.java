@@ -0,0 +1,1306 @@
+/* Program: Threadneedle
+ *
+ * Checkpoint : Save and restore the complete state of a running simulation.
+ *
+ * The object graph reachable from the simulation engine, together with the
+ * static simulation state (step, random number generator, id counters and
+ * the statistics directory), is written in a compact binary form:
+ *
+ *   header   magic, version
+ *   objects  one allocation record per object: kind, class and for leaf
+ *            objects (strings, enums, serialized jdk objects) their value
+ *   contents field values of each object, array elements, collection
+ *            elements and map entries, as references to other objects
+ *   statics  the static fields in STATICS
+ *
+ * Simulation classes are written field by field, and restored without
+ * calling their constructors. jdk collections, including the javafx
+ * observable wrappers used by core, are rebuilt through their interfaces.
+ * Other jdk objects (e.g. Random, Color) use java serialization. Transient
+ * fields are not saved, and fields declared in jdk superclasses are
+ * skipped. Class and field names are recorded, so a checkpoint can be
+ * restored into a different copy of the simulation classes (see
+ * SimulationContext), and fields which no longer exist are ignored.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableMap;
+
+public class Checkpoint
+{
+  private static final int MAGIC   = 0x544e434b;    // "TNCK"
+  private static final int VERSION = 1;
+
+  // Static simulation state, saved after the object graph.
+
+  static final String[] STATICS =
+  {
+    "base.Base.step", "base.Base.seed", "base.Base.streams",
+    "base.Base.latestId", "base.Base.wid", "base.Base.agentLimit",
+    "base.Base.random",
+    "core.Account.nextIdNo", "core.Loan.lastLoanId",
+    "statistics.Statistic.names", "statistics.Statistic.historyLength",
+    "statistics.Statistic.registry", "statistics.Statistic.registered",
+    "statistics.Statistic.free", "statistics.Statistic.freed",
+    "statistics.Statistic.lazyEvaluation"
+  };
+
+  // Packages whose classes are saved field by field.
+
+  private static final String[] PACKAGES =
+    {"base.", "core.", "agents.", "statistics."};
+
+  // Object kinds
+
+  private static final int K_OBJECT   = 0;
+  private static final int K_ARRAY    = 1;
+  private static final int K_STRING   = 2;
+  private static final int K_INTEGER  = 3;
+  private static final int K_ENUM     = 4;
+  private static final int K_CLASS    = 5;
+  private static final int K_SERIAL   = 6;
+  private static final int K_COLL     = 7;
+  private static final int K_MAP      = 8;
+  private static final int K_OBS_LIST = 9;
+  private static final int K_OBS_MAP  = 10;
+
+  // Value tags. Boxed values other than Integer are written inline,
+  // Integers are shared objects so that their identity is preserved.
+
+  private static final int T_NULL   = 0;
+  private static final int T_REF    = 1;
+  private static final int T_INT    = 2;
+  private static final int T_LONG   = 3;
+  private static final int T_DOUBLE = 4;
+  private static final int T_FLOAT  = 5;
+  private static final int T_BOOL   = 6;
+  private static final int T_BYTE   = 7;
+  private static final int T_SHORT  = 8;
+  private static final int T_CHAR   = 9;
+
+  private static final HashMap<Class<?>, Field[]> fieldCache = new HashMap<>();
+
+  /**
+   * Write a checkpoint of the simulation.
+   *
+   * @param engine Simulation engine
+   * @param file   File to write, gzip compressed if the name ends in .gz
+   * @throws IOException on failure to write
+   */
+  public static void save(SimulationEngine engine, File file)
+    throws IOException
+  {
+    OutputStream os = new FileOutputStream(file);
+
+    if (file.getName().endsWith(".gz"))
+      os = new GZIPOutputStream(os, 1 << 16);
+
+    save(engine, os);
+  }
+
+  /**
+   * Write a checkpoint of the simulation to a stream, which is closed.
+   *
+   * @param engine Simulation engine
+   * @param os     Output stream
+   * @throws IOException on failure to write
+   */
+  public static void save(SimulationEngine engine, OutputStream os)
+    throws IOException
+  {
+    try (DataOutputStream out = new DataOutputStream(
+                                  new BufferedOutputStream(os, 1 << 16)))
+    {
+      new Writer(out).write(engine);
+    }
+  }
+
+  /**
+   * Restore a checkpoint into the simulation. The engine object itself is
+   * kept, and its fields replaced by those saved.
+   *
+   * @param engine Simulation engine
+   * @param file   Checkpoint file
+   * @throws IOException on failure to read, or an invalid checkpoint
+   */
+  public static void restore(SimulationEngine engine, File file)
+    throws IOException
+  {
+    InputStream is = new FileInputStream(file);
+
+    if (file.getName().endsWith(".gz"))
+      is = new GZIPInputStream(is, 1 << 16);
+
+    restore(engine, is);
+  }
+
+  /**
+   * Restore a checkpoint from a stream, which is closed.
+   *
+   * @param engine Simulation engine
+   * @param is     Input stream
+   * @throws IOException on failure to read, or an invalid checkpoint
+   */
+  public static void restore(SimulationEngine engine, InputStream is)
+    throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(
+                                new BufferedInputStream(is, 1 << 16)))
+    {
+      new Reader(in).read(engine);
+    }
+  }
+
+  /**
+   * Writes the object graph.
+   */
+  private static class Writer
+  {
+    private final DataOutputStream out;
+
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+    private final ArrayList<Object>  objects = new ArrayList<>();
+    private final ArrayList<Integer> kinds   = new ArrayList<>();
+
+    private final HashMap<Class<?>, Integer> classes = new HashMap<>();
+    private final HashSet<Class<?>> unsupported = new HashSet<>();
+
+    // Collections behind observable wrappers, which may be copies
+
+    private final IdentityHashMap<Object, Object> backings = new IdentityHashMap<>();
+
+    Writer(DataOutputStream out)
+    {
+      this.out = out;
+    }
+
+    void write(SimulationEngine engine) throws IOException
+    {
+      Object[] statics = new Object[STATICS.length];
+
+      // Discover every object, breadth first from the roots.
+
+      add(engine);
+
+      for (int i = 0; i < STATICS.length; i++)
+      {
+        statics[i] = getStatic(STATICS[i], Checkpoint.class.getClassLoader());
+        add(statics[i]);
+      }
+
+      for (int i = 0; i < objects.size(); i++)
+        discover(objects.get(i), kinds.get(i));
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      writeVarInt(objects.size());
+
+      for (int i = 0; i < objects.size(); i++)
+        allocation(objects.get(i), kinds.get(i));
+
+      for (int i = 0; i < objects.size(); i++)
+        contents(objects.get(i), kinds.get(i));
+
+      writeVarInt(STATICS.length);
+
+      for (int i = 0; i < STATICS.length; i++)
+      {
+        out.writeUTF(STATICS[i]);
+        value(statics[i]);
+      }
+    }
+
+    /**
+     * Assign an id to object if it is saved by reference.
+     */
+    private void add(Object o)
+    {
+      if (o == null || ids.containsKey(o) || inline(o))
+        return;
+
+      int kind = kind(o);
+
+      if (kind < 0)
+      {
+        if (unsupported.add(o.getClass()))
+          System.err.println("Checkpoint: not saving " + o.getClass().getName());
+        return;
+      }
+
+      ids.put(o, objects.size());
+      objects.add(o);
+      kinds.add(kind);
+    }
+
+    /**
+     * Add the objects referenced by o.
+     */
+    private void discover(Object o, int kind)
+    {
+      switch (kind)
+      {
+        case K_OBJECT:
+          for (Field f : fields(o.getClass()))
+          {
+            if (!f.getType().isPrimitive())
+              add(get(f, o));
+          }
+          break;
+
+        case K_ARRAY:
+          if (!o.getClass().getComponentType().isPrimitive())
+            for (Object e : (Object[]) o)
+              add(e);
+          break;
+
+        case K_COLL:
+          add(comparator(o));
+
+          for (Object e : (Collection<?>) o)
+            add(e);
+          break;
+
+        case K_MAP:
+          add(comparator(o));
+
+          for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet())
+          {
+            add(e.getKey());
+            add(e.getValue());
+          }
+          break;
+
+        case K_OBS_LIST:
+        case K_OBS_MAP:
+          add(backings.computeIfAbsent(o, w -> backingOf(w, kind)));
+          break;
+      }
+    }
+
+    /**
+     * Return the collection an observable wrapper delegates to. If the
+     * wrapper's internals are not accessible a copy is used, and the
+     * restored wrapper will no longer share the collection it was
+     * created from.
+     */
+    private Object backingOf(Object o, int kind)
+    {
+      Object backing = backing(o, kind);
+
+      if (backing != null)
+        return backing;
+
+      if (unsupported.add(o.getClass()))
+        System.err.println("Checkpoint: copying " + o.getClass().getName()
+                           + " (add --add-opens for javafx.base to share)");
+
+      return kind == K_OBS_LIST ? new ArrayList<>((List<?>) o)
+                                : new HashMap<>((Map<?, ?>) o);
+    }
+
+    private void allocation(Object o, int kind) throws IOException
+    {
+      out.writeByte(kind);
+
+      switch (kind)
+      {
+        case K_OBJECT:
+          writeClass(o.getClass());
+          break;
+
+        case K_COLL:
+        case K_MAP:
+          writeClass(o.getClass());
+          value(comparator(o));
+          break;
+
+        case K_ARRAY:
+          writeClass(o.getClass());
+          writeVarInt(Array.getLength(o));
+          break;
+
+        case K_STRING:
+          writeString((String) o);
+          break;
+
+        case K_INTEGER:
+          out.writeInt((Integer) o);
+          break;
+
+        case K_ENUM:
+          writeClass(((Enum<?>) o).getDeclaringClass());
+          writeString(((Enum<?>) o).name());
+          break;
+
+        case K_CLASS:
+          writeString(((Class<?>) o).getName());
+          break;
+
+        case K_SERIAL:
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+          try (ObjectOutputStream oos = new ObjectOutputStream(bytes))
+          {
+            oos.writeObject(o);
+          }
+          writeVarInt(bytes.size());
+          bytes.writeTo(out);
+          break;
+      }
+    }
+
+    private void contents(Object o, int kind) throws IOException
+    {
+      switch (kind)
+      {
+        case K_OBJECT:
+          for (Field f : fields(o.getClass()))
+            field(f, o);
+          break;
+
+        case K_ARRAY:
+          array(o);
+          break;
+
+        case K_COLL:
+          writeVarInt(((Collection<?>) o).size());
+
+          for (Object e : (Collection<?>) o)
+            value(e);
+          break;
+
+        case K_MAP:
+          writeVarInt(((Map<?, ?>) o).size());
+
+          for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet())
+          {
+            value(e.getKey());
+            value(e.getValue());
+          }
+          break;
+
+        case K_OBS_LIST:
+        case K_OBS_MAP:
+          value(backings.get(o));
+          break;
+      }
+    }
+
+    private void field(Field f, Object o) throws IOException
+    {
+      try
+      {
+        Class<?> t = f.getType();
+
+        if      (t == Integer.TYPE)   { out.writeByte(T_INT);    out.writeInt(f.getInt(o)); }
+        else if (t == Long.TYPE)      { out.writeByte(T_LONG);   out.writeLong(f.getLong(o)); }
+        else if (t == Double.TYPE)    { out.writeByte(T_DOUBLE); out.writeDouble(f.getDouble(o)); }
+        else if (t == Boolean.TYPE)   { out.writeByte(T_BOOL);   out.writeBoolean(f.getBoolean(o)); }
+        else if (t == Float.TYPE)     { out.writeByte(T_FLOAT);  out.writeFloat(f.getFloat(o)); }
+        else if (t == Byte.TYPE)      { out.writeByte(T_BYTE);   out.writeByte(f.getByte(o)); }
+        else if (t == Short.TYPE)     { out.writeByte(T_SHORT);  out.writeShort(f.getShort(o)); }
+        else if (t == Character.TYPE) { out.writeByte(T_CHAR);   out.writeChar(f.getChar(o)); }
+        else
+          value(f.get(o));
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new IOException("Unable to read " + f, e);
+      }
+    }
+
+    private void array(Object o) throws IOException
+    {
+      Class<?> t = o.getClass().getComponentType();
+
+      if (t == Long.TYPE)
+        for (long v : (long[]) o) out.writeLong(v);
+      else if (t == Integer.TYPE)
+        for (int v : (int[]) o) out.writeInt(v);
+      else if (t == Double.TYPE)
+        for (double v : (double[]) o) out.writeDouble(v);
+      else if (t == Boolean.TYPE)
+        for (boolean v : (boolean[]) o) out.writeBoolean(v);
+      else if (t == Float.TYPE)
+        for (float v : (float[]) o) out.writeFloat(v);
+      else if (t == Byte.TYPE)
+        out.write((byte[]) o);
+      else if (t == Short.TYPE)
+        for (short v : (short[]) o) out.writeShort(v);
+      else if (t == Character.TYPE)
+        for (char v : (char[]) o) out.writeChar(v);
+      else
+        for (Object v : (Object[]) o) value(v);
+    }
+
+    /**
+     * Write a reference, or an inline boxed value.
+     */
+    private void value(Object o) throws IOException
+    {
+      if (o == null)
+        out.writeByte(T_NULL);
+      else if (o instanceof Long)
+      {
+        out.writeByte(T_LONG);
+        out.writeLong((Long) o);
+      }
+      else if (o instanceof Double)
+      {
+        out.writeByte(T_DOUBLE);
+        out.writeDouble((Double) o);
+      }
+      else if (o instanceof Boolean)
+      {
+        out.writeByte(T_BOOL);
+        out.writeBoolean((Boolean) o);
+      }
+      else if (o instanceof Float)
+      {
+        out.writeByte(T_FLOAT);
+        out.writeFloat((Float) o);
+      }
+      else if (o instanceof Byte)
+      {
+        out.writeByte(T_BYTE);
+        out.writeByte((Byte) o);
+      }
+      else if (o instanceof Short)
+      {
+        out.writeByte(T_SHORT);
+        out.writeShort((Short) o);
+      }
+      else if (o instanceof Character)
+      {
+        out.writeByte(T_CHAR);
+        out.writeChar((Character) o);
+      }
+      else
+      {
+        Integer id = ids.get(o);
+
+        if (id == null)               // Unsupported, already reported
+          out.writeByte(T_NULL);
+        else
+        {
+          out.writeByte(T_REF);
+          writeVarInt(id);
+        }
+      }
+    }
+
+    /**
+     * Write class, with its field names the first time it is seen.
+     */
+    private void writeClass(Class<?> c) throws IOException
+    {
+      Integer id = classes.get(c);
+
+      if (id != null)
+      {
+        writeVarInt(id);
+        return;
+      }
+
+      writeVarInt(classes.size());
+      classes.put(c, classes.size());
+      writeString(c.getName());
+
+      if (fielded(c))
+      {
+        Field[] fields = fields(c);
+
+        writeVarInt(fields.length);
+
+        for (Field f : fields)
+          writeString(f.getDeclaringClass().getName() + "." + f.getName());
+      }
+    }
+
+    private void writeString(String s) throws IOException
+    {
+      byte[] b = s.getBytes("UTF-8");
+
+      writeVarInt(b.length);
+      out.write(b);
+    }
+
+    private void writeVarInt(int v) throws IOException
+    {
+      while ((v & ~0x7f) != 0)
+      {
+        out.writeByte((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      out.writeByte(v);
+    }
+  }
+
+  /**
+   * Reads the object graph.
+   */
+  private static class Reader
+  {
+    private final DataInputStream in;
+    private final ClassLoader     loader = Checkpoint.class.getClassLoader();
+
+    private Object[] objects;
+    private int[]    kinds;
+
+    private final ArrayList<Class<?>> classes = new ArrayList<>();
+    private final ArrayList<Field[]>  layouts = new ArrayList<>();
+
+    // Class layouts of objects, by object id
+
+    private Field[][] layout;
+
+    Reader(DataInputStream in)
+    {
+      this.in = in;
+    }
+
+    void read(SimulationEngine engine) throws IOException
+    {
+      if (in.readInt() != MAGIC)
+        throw new IOException("Not a checkpoint file");
+
+      int version = in.readInt();
+
+      if (version != VERSION)
+        throw new IOException("Unsupported checkpoint version " + version);
+
+      int n = readVarInt();
+
+      objects = new Object[n];
+      kinds   = new int[n];
+      layout  = new Field[n][];
+
+      int[] comparators = new int[n];
+
+      for (int i = 0; i < n; i++)
+        comparators[i] = allocate(i, i == 0 ? engine : null);
+
+      // Collections can only be created once their comparators exist
+
+      for (int i = 0; i < n; i++)
+      {
+        if (kinds[i] == K_COLL || kinds[i] == K_MAP)
+          objects[i] = create((Class<?>) objects[i],
+                              comparators[i] < 0 ? null
+                                                 : objects[comparators[i]]);
+      }
+
+      // Collections are filled last, innermost first, so that the
+      // hashcodes of their elements are complete when they are added.
+
+      Object[][] pending = new Object[n][];
+
+      for (int i = 0; i < n; i++)
+        pending[i] = contents(i);
+
+      for (int i = n - 1; i >= 0; i--)
+      {
+        if (pending[i] != null)
+          fill(i, pending[i]);
+      }
+
+      int statics = readVarInt();
+
+      for (int i = 0; i < statics; i++)
+      {
+        String name  = in.readUTF();
+        Object value = readValue();
+
+        setStatic(name, value, loader);
+      }
+    }
+
+    /**
+     * Read allocation record for object i.
+     *
+     * @return id of the comparator of a collection, or -1
+     */
+    private int allocate(int i, Object engine) throws IOException
+    {
+      int kind = in.readByte();
+      kinds[i] = kind;
+
+      switch (kind)
+      {
+        case K_OBJECT:
+        {
+          int c = readClass();
+
+          layout[i] = layouts.get(c);
+
+          if (engine != null)
+          {
+            if (engine.getClass() != classes.get(c))
+              throw new IOException("Checkpoint is for "
+                                    + classes.get(c).getName()
+                                    + ", simulation is "
+                                    + engine.getClass().getName());
+            objects[i] = engine;
+          }
+          else
+            objects[i] = instantiate(classes.get(c));
+          break;
+        }
+
+        case K_ARRAY:
+        {
+          Class<?> c = classes.get(readClass());
+          objects[i] = Array.newInstance(c.getComponentType(), readVarInt());
+          break;
+        }
+
+        case K_COLL:
+        case K_MAP:
+        {
+          objects[i] = classes.get(readClass());   // Created by read()
+
+          int tag = in.readByte();
+
+          if (tag == T_REF)
+            return readVarInt();
+          if (tag != T_NULL)
+            throw new IOException("Invalid comparator");
+          break;
+        }
+
+        case K_STRING:
+          objects[i] = readString();
+          break;
+
+        case K_INTEGER:
+          objects[i] = Integer.valueOf(in.readInt());
+          break;
+
+        case K_ENUM:
+        {
+          Class<?> c = classes.get(readClass());
+          objects[i] = enumValue(c, readString());
+          break;
+        }
+
+        case K_CLASS:
+          objects[i] = resolve(readString());
+          break;
+
+        case K_SERIAL:
+        {
+          byte[] b = new byte[readVarInt()];
+          in.readFully(b);
+
+          try (ObjectInputStream ois = new LoaderInputStream(
+                                         new ByteArrayInputStream(b), loader))
+          {
+            objects[i] = ois.readObject();
+          }
+          catch (ClassNotFoundException e)
+          {
+            throw new IOException("Unable to restore object", e);
+          }
+          break;
+        }
+
+        case K_OBS_LIST:
+        case K_OBS_MAP:
+          objects[i] = null;                      // Built when filled
+          break;
+
+        default:
+          throw new IOException("Invalid object kind " + kind);
+      }
+      return -1;
+    }
+
+    /**
+     * Read the contents of object i. Objects and arrays are filled
+     * immediately; for collections the values are returned, to be added
+     * once all objects are complete.
+     */
+    private Object[] contents(int i) throws IOException
+    {
+      Object o = objects[i];
+
+      switch (kinds[i])
+      {
+        case K_OBJECT:
+          for (Field f : layout[i])
+          {
+            Object v = readValue();
+
+            if (f != null)
+              set(f, o, v);
+          }
+          return null;
+
+        case K_ARRAY:
+          readArray(o);
+          return null;
+
+        case K_COLL:
+        case K_MAP:
+        {
+          Object[] v = new Object[readVarInt() * (kinds[i] == K_MAP ? 2 : 1)];
+
+          for (int j = 0; j < v.length; j++)
+            v[j] = readValue();
+
+          return v;
+        }
+
+        case K_OBS_LIST:
+        case K_OBS_MAP:
+          return new Object[] {readValue()};
+
+        default:
+          return null;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fill(int i, Object[] v)
+    {
+      Object o = objects[i];
+
+      // Wrappers referenced from collections have been built by now
+
+      for (int j = 0; j < v.length; j++)
+      {
+        if (v[j] instanceof Ref)
+          v[j] = objects[((Ref) v[j]).id];
+      }
+
+      switch (kinds[i])
+      {
+        case K_COLL:
+          for (Object e : v)
+            ((Collection<Object>) o).add(e);
+          break;
+
+        case K_MAP:
+          for (int j = 0; j < v.length; j += 2)
+            ((Map<Object, Object>) o).put(v[j], v[j + 1]);
+          break;
+
+        case K_OBS_LIST:
+          objects[i] = FXCollections.observableList((List<Object>) v[0]);
+          relink(i);
+          break;
+
+        case K_OBS_MAP:
+          objects[i] = FXCollections.observableMap((Map<Object, Object>) v[0]);
+          relink(i);
+          break;
+      }
+    }
+
+    /**
+     * Observable wrappers are only created once their backing collection
+     * is complete, so references to them are set afterwards.
+     */
+    private final HashMap<Integer, ArrayList<Object[]>> links = new HashMap<>();
+
+    private void relink(int i)
+    {
+      ArrayList<Object[]> refs = links.remove(i);
+
+      if (refs == null)
+        return;
+
+      for (Object[] r : refs)
+      {
+        if (r[0] instanceof Field)
+          set((Field) r[0], r[1], objects[i]);
+        else
+          Array.set(r[1], (Integer) r[0], objects[i]);
+      }
+    }
+
+    private void set(Field f, Object o, Object v)
+    {
+      try
+      {
+        if (v instanceof Ref)
+        {
+          links.computeIfAbsent(((Ref) v).id, k -> new ArrayList<>())
+               .add(new Object[] {f, o});
+          return;
+        }
+
+        Class<?> t = f.getType();
+
+        if (t.isPrimitive())
+        {
+          if      (t == Integer.TYPE)   f.setInt(o, ((Number) v).intValue());
+          else if (t == Long.TYPE)      f.setLong(o, ((Number) v).longValue());
+          else if (t == Double.TYPE)    f.setDouble(o, ((Number) v).doubleValue());
+          else if (t == Boolean.TYPE)   f.setBoolean(o, (Boolean) v);
+          else if (t == Float.TYPE)     f.setFloat(o, ((Number) v).floatValue());
+          else if (t == Byte.TYPE)      f.setByte(o, ((Number) v).byteValue());
+          else if (t == Short.TYPE)     f.setShort(o, ((Number) v).shortValue());
+          else if (t == Character.TYPE) f.setChar(o, (Character) v);
+        }
+        else if (v == null || t.isInstance(v))
+          f.set(o, v);
+        else
+          System.err.println("Checkpoint: incompatible value for " + f);
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new RuntimeException("Unable to restore " + f, e);
+      }
+    }
+
+    private void readArray(Object o) throws IOException
+    {
+      Class<?> t = o.getClass().getComponentType();
+      int n = Array.getLength(o);
+
+      if (t == Long.TYPE)
+        for (int j = 0; j < n; j++) ((long[]) o)[j] = in.readLong();
+      else if (t == Integer.TYPE)
+        for (int j = 0; j < n; j++) ((int[]) o)[j] = in.readInt();
+      else if (t == Double.TYPE)
+        for (int j = 0; j < n; j++) ((double[]) o)[j] = in.readDouble();
+      else if (t == Boolean.TYPE)
+        for (int j = 0; j < n; j++) ((boolean[]) o)[j] = in.readBoolean();
+      else if (t == Float.TYPE)
+        for (int j = 0; j < n; j++) ((float[]) o)[j] = in.readFloat();
+      else if (t == Byte.TYPE)
+        in.readFully((byte[]) o);
+      else if (t == Short.TYPE)
+        for (int j = 0; j < n; j++) ((short[]) o)[j] = in.readShort();
+      else if (t == Character.TYPE)
+        for (int j = 0; j < n; j++) ((char[]) o)[j] = in.readChar();
+      else
+      {
+        for (int j = 0; j < n; j++)
+        {
+          Object v = readValue();
+
+          if (v instanceof Ref)
+            links.computeIfAbsent(((Ref) v).id, k -> new ArrayList<>())
+                 .add(new Object[] {j, o});
+          else
+            Array.set(o, j, v);
+        }
+      }
+    }
+
+    /**
+     * Reference to an observable wrapper which has not been built yet.
+     */
+    private static class Ref
+    {
+      final int id;
+
+      Ref(int id)
+      {
+        this.id = id;
+      }
+    }
+
+    private Object readValue() throws IOException
+    {
+      int tag = in.readByte();
+
+      switch (tag)
+      {
+        case T_NULL:   return null;
+        case T_INT:    return in.readInt();
+        case T_LONG:   return in.readLong();
+        case T_DOUBLE: return in.readDouble();
+        case T_FLOAT:  return in.readFloat();
+        case T_BOOL:   return in.readBoolean();
+        case T_BYTE:   return in.readByte();
+        case T_SHORT:  return in.readShort();
+        case T_CHAR:   return in.readChar();
+
+        case T_REF:
+        {
+          int id = readVarInt();
+
+          if (kinds[id] == K_OBS_LIST || kinds[id] == K_OBS_MAP)
+            return objects[id] != null ? objects[id] : new Ref(id);
+
+          return objects[id];
+        }
+
+        default:
+          throw new IOException("Invalid value tag " + tag);
+      }
+    }
+
+    private int readClass() throws IOException
+    {
+      int id = readVarInt();
+
+      if (id < classes.size())
+        return id;
+
+      Class<?> c = resolve(readString());
+      Field[]  f = null;
+
+      if (fielded(c))
+      {
+        HashMap<String, Field> current = new HashMap<>();
+
+        for (Field field : fields(c))
+          current.put(field.getDeclaringClass().getName() + "."
+                      + field.getName(), field);
+
+        f = new Field[readVarInt()];
+
+        for (int j = 0; j < f.length; j++)
+        {
+          String name = readString();
+
+          if ((f[j] = current.get(name)) == null)
+            System.err.println("Checkpoint: ignoring field " + name);
+        }
+      }
+
+      classes.add(c);
+      layouts.add(f);
+
+      return id;
+    }
+
+    private Class<?> resolve(String name) throws IOException
+    {
+      try
+      {
+        return Class.forName(name, false, loader);
+      }
+      catch (ClassNotFoundException e)
+      {
+        throw new IOException("Unknown class in checkpoint: " + name, e);
+      }
+    }
+
+    private String readString() throws IOException
+    {
+      byte[] b = new byte[readVarInt()];
+
+      in.readFully(b);
+      return new String(b, "UTF-8");
+    }
+
+    private int readVarInt() throws IOException
+    {
+      int v = 0;
+
+      for (int shift = 0; ; shift += 7)
+      {
+        int b = in.readByte();
+
+        v |= (b & 0x7f) << shift;
+
+        if ((b & 0x80) == 0)
+          return v;
+      }
+    }
+  }
+
+  /**
+   * Object input stream resolving classes through the simulation's class
+   * loader.
+   */
+  private static class LoaderInputStream extends ObjectInputStream
+  {
+    private final ClassLoader loader;
+
+    LoaderInputStream(InputStream in, ClassLoader loader) throws IOException
+    {
+      super(in);
+      this.loader = loader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+      throws IOException, ClassNotFoundException
+    {
+      try
+      {
+        return Class.forName(desc.getName(), false, loader);
+      }
+      catch (ClassNotFoundException e)
+      {
+        return super.resolveClass(desc);
+      }
+    }
+  }
+
+  /**
+   * @return t/f o is written inline rather than by reference
+   */
+  private static boolean inline(Object o)
+  {
+    return o instanceof Number && !(o instanceof Integer)
+           && o.getClass().getName().startsWith("java.lang.")
+           || o instanceof Boolean || o instanceof Character;
+  }
+
+  /**
+   * @return kind of object, -1 if it cannot be saved
+   */
+  private static int kind(Object o)
+  {
+    Class<?> c = o.getClass();
+
+    if (o instanceof String)       return K_STRING;
+    if (o instanceof Integer)      return K_INTEGER;
+    if (o instanceof Enum)         return K_ENUM;
+    if (o instanceof Class)        return K_CLASS;
+    if (c.isArray())               return K_ARRAY;
+    if (o instanceof Random)       return K_SERIAL;
+    if (fielded(c))                return K_OBJECT;
+    if (o instanceof ObservableList) return K_OBS_LIST;
+    if (o instanceof ObservableMap)  return K_OBS_MAP;
+    if (o instanceof Collection)   return K_COLL;
+    if (o instanceof Map)          return K_MAP;
+    if (o instanceof Serializable) return K_SERIAL;
+
+    return -1;
+  }
+
+  /**
+   * @return t/f objects of class are saved field by field
+   */
+  private static boolean fielded(Class<?> c)
+  {
+    if (c == Object.class)
+      return true;
+
+    if (c.isArray() || c.isEnum() || c.isSynthetic() || c.isHidden())
+      return false;
+
+    return simulation(c);
+  }
+
+  private static boolean simulation(Class<?> c)
+  {
+    for (String p : PACKAGES)
+    {
+      if (c.getName().startsWith(p))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Return the saved fields of class: all non static, non transient fields
+   * declared by simulation classes.
+   */
+  private static synchronized Field[] fields(Class<?> c)
+  {
+    Field[] fields = fieldCache.get(c);
+
+    if (fields != null)
+      return fields;
+
+    ArrayList<Field> list = new ArrayList<>();
+
+    for (Class<?> k = c; k != null && simulation(k); k = k.getSuperclass())
+    {
+      for (Field f : k.getDeclaredFields())
+      {
+        int m = f.getModifiers();
+
+        if (Modifier.isStatic(m) || Modifier.isTransient(m))
+          continue;
+
+        f.setAccessible(true);
+        list.add(f);
+      }
+    }
+
+    fields = list.toArray(new Field[0]);
+    fieldCache.put(c, fields);
+
+    return fields;
+  }
+
+  private static Object get(Field f, Object o)
+  {
+    try
+    {
+      return f.get(o);
+    }
+    catch (IllegalAccessException e)
+    {
+      throw new RuntimeException("Unable to read " + f, e);
+    }
+  }
+
+  private static Object comparator(Object o)
+  {
+    if (o instanceof SortedMap)
+      return ((SortedMap<?, ?>) o).comparator();
+    if (o instanceof SortedSet)
+      return ((SortedSet<?>) o).comparator();
+    if (o instanceof PriorityQueue)
+      return ((PriorityQueue<?>) o).comparator();
+
+    return null;
+  }
+
+  /**
+   * Return the collection an observable wrapper delegates to, or null if
+   * it is not accessible.
+   */
+  private static Object backing(Object o, int kind)
+  {
+    String name = (kind == K_OBS_LIST) ? "backingList" : "backingMap";
+
+    for (Class<?> c = o.getClass(); c != null; c = c.getSuperclass())
+    {
+      try
+      {
+        Field f = c.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(o);
+      }
+      catch (NoSuchFieldException e)
+      {
+        // try superclass
+      }
+      catch (Exception e)
+      {
+        break;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Create an empty collection of class c.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object create(Class<?> c, Object comparator)
+  {
+    try
+    {
+      if (comparator != null)
+        return c.getConstructor(Comparator.class).newInstance(comparator);
+
+      return c.getConstructor().newInstance();
+    }
+    catch (Exception e)
+    {
+      System.err.println("Checkpoint: restoring " + c.getName()
+                         + " as a modifiable collection");
+
+      if (Map.class.isAssignableFrom(c))
+        return SortedMap.class.isAssignableFrom(c)
+               ? new TreeMap<>((Comparator<Object>) comparator)
+               : new LinkedHashMap<>();
+
+      return new ArrayList<>();
+    }
+  }
+
+  /**
+   * Allocate an instance without calling its constructors.
+   */
+  private static Object instantiate(Class<?> c) throws IOException
+  {
+    if (c == Object.class)
+      return new Object();
+
+    try
+    {
+      return allocator().invoke(unsafe, c);
+    }
+    catch (Exception e)
+    {
+      throw new IOException("Unable to allocate " + c.getName(), e);
+    }
+  }
+
+  // sun.misc.Unsafe.allocateInstance, looked up reflectively
+
+  private static Object unsafe   = null;
+  private static Method allocate = null;
+
+  private static synchronized Method allocator() throws Exception
+  {
+    if (allocate == null)
+    {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      Field f = c.getDeclaredField("theUnsafe");
+
+      f.setAccessible(true);
+      unsafe   = f.get(null);
+      allocate = c.getMethod("allocateInstance", Class.class);
+    }
+    return allocate;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object enumValue(Class<?> c, String name)
+  {
+    return Enum.valueOf((Class) c, name);
+  }
+
+  /**
+   * Read static field, named as package.Class.field
+   */
+  static Object getStatic(String name, ClassLoader loader)
+  {
+    try
+    {
+      return staticField(name, loader).get(null);
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("Unable to read " + name, e);
+    }
+  }
+
+  static void setStatic(String name, Object value, ClassLoader loader)
+  {
+    try
+    {
+      staticField(name, loader).set(null, value);
+    }
+    catch (Exception e)
+    {
+      System.err.println("Checkpoint: unable to restore " + name + " " + e);
+    }
+  }
+
+  private static Field staticField(String name, ClassLoader loader)
+    throws Exception
+  {
+    int dot = name.lastIndexOf('.');
+    Field f = Class.forName(name.substring(0, dot), true, loader)
+                   .getDeclaredField(name.substring(dot + 1));
+
+    f.setAccessible(true);
+    return f;
+  }
+}
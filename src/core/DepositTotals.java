@@ -0,0 +1,194 @@
+/* Program: Threadneedle
+ *
+ * DepositTotals : Total deposits of the persons, companies and markets,
+ *                 maintained from the entries posted to the banks' ledgers.
+ *
+ * While set (see Auditor.setTotals()) the banks' ledgers are tapped, and
+ * each entry posted to a per-account ledger refreshes the owners of the
+ * transaction's accounts. A member's deposit is read from its own account,
+ * as PhaseEngine.deposit(), and the change since it was last seen is
+ * applied to its group's total, and to the group's deposit distribution if
+ * one is given, so that the totals are read in O(1) at any point of the
+ * step. Deposits only change in Ledger.debit() and credit(), which post
+ * the transaction after changing the account.
+ *
+ * Each entry then costs a few map lookups, so this pays where the
+ * population is large relative to the entries posted each step.
+ *
+ * The members are found, and their deposits read, in a single pass
+ * whenever the number of persons, companies or markets has changed, or a
+ * ledger has been tapped since the last (e.g. a new bank, or a checkpoint
+ * restored).
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+import java.util.*;
+
+import statistics.DistributionStatistic;
+
+public class DepositTotals
+{
+  public static final int PERSONS   = 0;
+  public static final int COMPANIES = 1;
+  public static final int MARKETS   = 2;
+
+  private final SimulationEngine simeng;
+
+  private final IdentityHashMap<Agent, Member> members = new IdentityHashMap<>();
+
+  private final long[]                  totals        = new long[3];
+  private final DistributionStatistic[] distributions = new DistributionStatistic[3];
+
+  private boolean stale = true;          // Members must be found again
+  private int     persons, companies, markets;
+
+  /**
+   * A member, and its deposit when last seen.
+   */
+  private static final class Member
+  {
+    final int group;
+    long      deposit;
+
+    Member(int group, long deposit)
+    {
+      this.group   = group;
+      this.deposit = deposit;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param simeng Engine whose persons, companies and markets are totalled
+   */
+  public DepositTotals(SimulationEngine simeng)
+  {
+    this.simeng = simeng;
+  }
+
+  /**
+   * Maintain the distribution of a group's deposits, replacing any kept
+   * before.
+   *
+   * @param group PERSONS, COMPANIES or MARKETS
+   * @param d     Distribution, null for none
+   */
+  public void setDistribution(int group, DistributionStatistic d)
+  {
+    distributions[group] = d;
+    stale = true;
+  }
+
+  /**
+   * @param group PERSONS, COMPANIES or MARKETS
+   * @return total deposits of the group's members
+   */
+  public long total(int group)
+  {
+    check();
+    return totals[group];
+  }
+
+  /**
+   * Find the members again if they have changed, so that the totals and
+   * distributions are current.
+   */
+  public void check()
+  {
+    if (stale || persons != simeng.employees.size()
+        || companies != simeng.companies.size()
+        || markets != (simeng.govt == null ? 0
+                                           : simeng.govt.markets.markets.size()))
+      rebuild();
+  }
+
+  /**
+   * Find the members again before the totals are next read.
+   */
+  void invalidate()
+  {
+    stale = true;
+  }
+
+  /**
+   * Refresh the owners of the accounts of an entry posted to ledger.
+   */
+  void posted(Ledger l, Transaction t)
+  {
+    refresh(l.accounts.get(t.debitAccountId));
+    refresh(l.accounts.get(t.creditAccountId));
+  }
+
+  private void refresh(Account account)
+  {
+    if (account == null)
+      return;
+
+    Member m = members.get(account.owner);
+
+    if (m == null)
+      return;
+
+    long deposit = PhaseEngine.deposit(account.owner);
+
+    if (deposit == m.deposit)
+      return;
+
+    totals[m.group] += deposit - m.deposit;
+
+    if (distributions[m.group] != null)
+    {
+      distributions[m.group].remove(m.deposit);
+      distributions[m.group].add(deposit);
+    }
+
+    m.deposit = deposit;
+  }
+
+  private void rebuild()
+  {
+    members.clear();
+    Arrays.fill(totals, 0);
+
+    for (DistributionStatistic d : distributions)
+      if (d != null)
+        d.clear();
+
+    for (Person p : simeng.employees)
+      join(p, PERSONS);
+
+    for (Company c : simeng.companies)
+      join(c, COMPANIES);
+
+    if (simeng.govt != null)
+      for (Market m : simeng.govt.markets.markets)
+        join(m, MARKETS);
+
+    persons   = simeng.employees.size();
+    companies = simeng.companies.size();
+    markets   = simeng.govt == null ? 0 : simeng.govt.markets.markets.size();
+    stale     = false;
+  }
+
+  private void join(Agent agent, int group)
+  {
+    long deposit = PhaseEngine.deposit(agent);
+
+    members.put(agent, new Member(group, deposit));
+    totals[group] += deposit;
+
+    if (distributions[group] != null)
+      distributions[group].add(deposit);
+  }
+}
@@ -0,0 +1,425 @@
+/* Program: Threadneedle
+ *
+ * Generator : Build large synthetic economies from a compact specification
+ *             of distributions, directly into a SimulationEngine.
+ *
+ * The specification is a json file:
+ *
+ *  {
+ *    "model"    : "2products40Workers.json",
+ *    "seed"     : 7,
+ *    "banks"    : [ {"clss": "Bank", "count": 100,
+ *                    "json": {"capitalPct": 0.2, "capitalSteps": 12},
+ *                    "deposit": {"type": "constant", "value": 0}} ],
+ *    "companies": [ {"clss": "Farm", "count": 1000, "bank": "zipf",
+ *                    "json": {"product": "Milk", "labourInput": 1},
+ *                    "deposit": {"type": "lognormal", "mean": 6, "sd": 1}} ],
+ *    "persons"  : [ {"clss": "Person", "count": 1000000, "bank": "*",
+ *                    "json": {"profile": {"needs": {...}}},
+ *                    "salary":  {"type": "uniform", "min": 1, "max": 10},
+ *                    "deposit": {"type": "pareto", "min": 5, "alpha": 1.5}} ]
+ *  }
+ *
+ * The optional model (relative to the specification's directory, see
+ * examples/generate1MWorkers.json) is loaded first, and must provide the
+ * government and markets if no simulation is loaded. Each group creates count agents
+ * of class clss from its json, which has the same fields as the agents in
+ * a model file, with initialDeposit and (for persons) desiredSalary drawn
+ * from the group's distributions. Several groups of each kind may be given,
+ * e.g. one per profile.
+ *
+ * Agents are banked with the named bank, or with a commercial bank chosen
+ * uniformly ("*", the default) or with Zipf weights by creation order
+ * ("zipf").
+ *
+ * Distributions are constant (value), uniform (min, max), normal (mean,
+ * sd), lognormal (mean, sd of the log) or pareto (min, alpha), and are
+ * limited to [min, max]. Values are drawn from the spec's own seeded random
+ * number generator, so the simulation's random numbers are unaffected.
+ *
+ * Agent ids are reserved (Base.reserveIDs) before any are created, so that
+ * more than 1,000,000 agents do not overlap the widget ids.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.awt.Color;
+import java.io.*;
+import java.util.*;
+
+import base.Base;
+
+public class Generator
+{
+  private final SimulationEngine simeng;
+
+  private final Gson agents = new GsonBuilder()
+                                .excludeFieldsWithoutExposeAnnotation()
+                                .create();
+  private Random random;
+
+  /**
+   * Specification, as read from json.
+   */
+  static class Spec
+  {
+    String  model;
+    long    seed      = 1;
+    Group[] banks     = {};
+    Group[] companies = {};
+    Group[] persons   = {};
+  }
+
+  /**
+   * Group of agents created from the same json.
+   */
+  static class Group
+  {
+    String       clss;
+    int          count;
+    String       bank = "*";                   // name, "*" or "zipf"
+    JsonObject   json = new JsonObject();
+    Distribution deposit;
+    Distribution salary;
+  }
+
+  /**
+   * Distribution of a long valued parameter.
+   */
+  static class Distribution
+  {
+    String type  = "constant";
+    double value = 0;
+    double min   = 0;
+    double max   = Long.MAX_VALUE;
+    double mean  = 0;
+    double sd    = 1;
+    double alpha = 1;
+
+    long sample(Random random)
+    {
+      double v;
+
+      switch (type)
+      {
+        case "constant":
+          v = value;
+          break;
+
+        case "uniform":
+          v = min + random.nextDouble() * (max - min);
+          break;
+
+        case "normal":
+          v = mean + sd * random.nextGaussian();
+          break;
+
+        case "lognormal":
+          v = Math.exp(mean + sd * random.nextGaussian());
+          break;
+
+        case "pareto":
+          v = min / Math.pow(1.0 - random.nextDouble(), 1.0 / alpha);
+          break;
+
+        default:
+          throw new IllegalArgumentException("Unknown distribution: " + type);
+      }
+
+      return Math.round(Math.max(min, Math.min(max, v)));
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param simeng Simulation engine to create agents in
+   */
+  public Generator(SimulationEngine simeng)
+  {
+    this.simeng = simeng;
+  }
+
+  /**
+   * Generate the economy described by a specification file.
+   *
+   * @param file Specification
+   * @return t/f generated successfully
+   */
+  public boolean generate(File file)
+  {
+    Spec spec;
+
+    try (BufferedReader br = new BufferedReader(new FileReader(file)))
+    {
+      spec = new Gson().fromJson(br, Spec.class);
+    }
+    catch (Exception e)
+    {
+      System.out.println("Unable to read generator specification: " + file
+                         + " " + e);
+      return false;
+    }
+
+    if (spec.model != null)
+    {
+      File model = new File(spec.model);
+
+      if (!model.isAbsolute() && !model.exists())
+        model = new File(file.getAbsoluteFile().getParentFile(), spec.model);
+
+      if (!simeng.loadSimulation(model))
+      {
+        System.out.println("Failed to load model: " + model);
+        return false;
+      }
+    }
+
+    if (simeng.govt == null)
+    {
+      System.out.println("Generator requires a government: load a model");
+      return false;
+    }
+
+    long start = System.currentTimeMillis();
+    long total = 0;
+
+    random = new Random(spec.seed);
+
+    try
+    {
+      for (Group[] groups : new Group[][]
+             {spec.banks, spec.companies, spec.persons})
+        for (Group g : groups)
+          total += g.count;
+
+      Base.reserveIDs((int) Math.min(Integer.MAX_VALUE, total));
+
+      for (Group g : spec.banks)
+        create(g, Bank.class);
+
+      Bank[] banks = commercialBanks();
+
+      for (Group g : spec.companies)
+        create(g, Company.class, banks);
+
+      for (Group g : spec.persons)
+        create(g, Person.class, banks);
+    }
+    catch (Exception e)
+    {
+      System.out.println("Generator failed: " + e);
+      return false;
+    }
+
+    System.out.println("Generated " + total + " agents in "
+                       + (System.currentTimeMillis() - start) / 1000.0 + "s");
+    return true;
+  }
+
+  /**
+   * Create a group of agents.
+   *
+   * @param g     Group
+   * @param type  Class the group's agents must extend
+   * @param banks Commercial banks, in order of creation
+   */
+  private void create(Group g, Class<? extends Agent> type, Bank... banks)
+    throws ClassNotFoundException
+  {
+    Class<? extends Agent> clazz = agentClass(g.clss, type);
+    double[]               zipf  = "zipf".equals(g.bank) ? zipf(banks.length)
+                                                         : null;
+
+    if (g.bank.equals("*") || zipf != null)
+    {
+      if (banks.length == 0 && type != Bank.class)
+        throw new RuntimeException("No commercial banks for " + g.clss);
+    }
+    else if (simeng.govt.getBank(g.bank) == null)
+      throw new RuntimeException("Unknown bank " + g.bank + " for " + g.clss);
+
+    ArrayList<Person> persons = new ArrayList<>();
+
+    for (int i = 0; i < g.count; i++)
+    {
+      Agent agent = agents.fromJson(g.json, clazz);
+
+      agent.name = clazz.getSimpleName() + "-" + agent.Id;
+
+      if (g.deposit != null)
+        agent.initialDeposit = g.deposit.sample(random);
+
+      if (type == Bank.class)
+        agent.bankname = "";
+      else if (zipf != null)
+        agent.bankname = banks[pick(zipf)].name;
+      else if (g.bank.equals("*"))
+        agent.bankname = banks[random.nextInt(banks.length)].name;
+      else
+        agent.bankname = g.bank;
+
+      if (agent instanceof Person)
+      {
+        Person person = (Person) agent;
+
+        if (g.salary != null)
+          person.desiredSalary = g.salary.sample(random);
+
+        person.unemployed = true;               // Nb. see unemployed()
+        addPerson(person);
+        persons.add(person);
+      }
+      else
+      {
+        String error = simeng.validateModel(agent);
+
+        if (error != null)
+          throw new RuntimeException(agent.name + ": " + error);
+      }
+    }
+
+    if (!persons.isEmpty())
+      unemployed(persons);
+  }
+
+  /**
+   * Add a person to the simulation, as SimulationEngine.validateModel(),
+   * but without its duplicate check, which is linear in the number of
+   * persons.
+   *
+   * @param person Person
+   */
+  private void addPerson(Person person)
+  {
+    simeng.objectList.put(person.name, person);
+    simeng.employees.add(person);
+    person.init(simeng.govt);
+
+    if (person instanceof Borrower && ((Borrower) person).lender == null)
+    {
+      Borrower borrower = (Borrower) person;
+
+      borrower.lender = (Company) simeng.objectList.get(borrower.lendername);
+
+      if (borrower.lender == null)
+        System.out.println("No lender matching borrower " + borrower.name
+                           + " : " + borrower.lendername);
+      else if (borrower.bankEmployee)
+        borrower.getBank().hireEmployee(borrower, -1L);
+    }
+  }
+
+  /**
+   * Put new persons on the labour market, as Person.setUnemployed() and
+   * LabourMarket.sell(), but adding them to its inventory at once, since
+   * Inventory.add() is linear in the size of the inventory.
+   *
+   * @param persons Persons, initialised as already unemployed
+   */
+  private void unemployed(List<Person> persons)
+  {
+    LabourMarket labour = simeng.govt.markets.getLabourMarket();
+    Inventory    batch  = new Inventory(labour.inventory.product,
+                                        labour.inventory.lifetime,
+                                        labour.inventory.unique);
+
+    for (Person person : persons)
+    {
+      long salary = person.getSalary();
+
+      if (salary < labour.sellPrice || labour.sellPrice == -1L)
+        labour.sellPrice = Math.max(salary, simeng.govt.minWage);
+
+      labour.bidPrice       = labour.sellPrice;
+      person.unemployedTime = 0;
+
+      batch.inventory.add(new Employee(person, person.desiredSalary, -1, -1));
+      person.setEmployer(labour, salary, Color.RED);
+    }
+
+    labour.inventory.merge(batch);
+  }
+
+  /**
+   * @return Commercial banks, in order of creation
+   */
+  private Bank[] commercialBanks()
+  {
+    ArrayList<Bank> banks = new ArrayList<>();
+
+    for (Bank bank : simeng.govt.getBankList().values())
+      if (!(bank instanceof CentralBank))
+        banks.add(bank);
+
+    banks.sort((a, b) -> a.Id.compareTo(b.Id));
+
+    return banks.toArray(new Bank[banks.size()]);
+  }
+
+  /**
+   * Find agent class in core or agents, as SimulationEngine.loadSimulation.
+   */
+  @SuppressWarnings("unchecked")
+  private static Class<? extends Agent> agentClass(String name,
+                                                   Class<? extends Agent> type)
+    throws ClassNotFoundException
+  {
+    Class<?> clazz;
+
+    try
+    {
+      clazz = Class.forName("core." + name);
+    }
+    catch (ClassNotFoundException e)
+    {
+      clazz = Class.forName("agents." + name);
+    }
+
+    if (!type.isAssignableFrom(clazz))
+      throw new ClassNotFoundException(name + " does not extend "
+                                       + type.getSimpleName());
+
+    return (Class<? extends Agent>) clazz;
+  }
+
+  /**
+   * @return Cumulative Zipf (s = 1) weights for n ranks
+   */
+  private static double[] zipf(int n)
+  {
+    double[] cumulative = new double[n];
+    double   sum        = 0;
+
+    for (int i = 0; i < n; i++)
+      cumulative[i] = sum += 1.0 / (i + 1);
+
+    for (int i = 0; i < n; i++)
+      cumulative[i] /= sum;
+
+    return cumulative;
+  }
+
+  /**
+   * @return Index drawn from cumulative weights
+   */
+  private int pick(double[] cumulative)
+  {
+    int i = Arrays.binarySearch(cumulative, random.nextDouble());
+
+    return Math.min(cumulative.length - 1, i < 0 ? -i - 1 : i);
+  }
+}
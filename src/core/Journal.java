@@ -0,0 +1,716 @@
+/* Program : Threadneedle
+ *
+ * Journal : Append only record of every transaction posted to the banks'
+ *           ledgers, held in memory mapped files.
+ *
+ * While a journal is set (see setJournal()), each ledger's transactions
+ * list is replaced by a Chain, which appends the transactions posted to
+ * it as fixed width records, so that recording a run holds no
+ * Transactions on the heap:
+ *
+ *   <dir>/seg-00000.dat  - records, SEGMENT per file, big endian
+ *   <dir>/text           - texts of reasons kept as they are, UTF-8
+ *   <dir>/index          - reason templates and ledger names, written by
+ *                          flush()
+ *
+ *   record  int  step
+ *           int  reason        code of transaction text, see Reason
+ *           int  debit         account ids
+ *           int  credit
+ *           long amount
+ *           int  ledger[2]     ledger ids, second -1 if unused
+ *           long prev[2]       previous entry in each ledger's chain
+ *           long arg[2]        numeric arguments of reason
+ *
+ * The transaction's text is held as its reason code and arguments (see
+ * Reason.parse()), so that only the reasons' templates are kept, in the
+ * index, and the text is rendered as a transaction is read. A text which
+ * Reason can no longer register a template for (code Reason.RAW) is
+ * appended to the text file, its offset and length held as arguments.
+ *
+ * The same Transaction is posted to both its debit and credit ledger, so
+ * when it is added to a second ledger directly after the first (as
+ * GeneralLedger does) it fills the record's second slot, rather than
+ * writing another. Each ledger's entries are linked backwards through the
+ * records, entry pointers being record * 2 + slot, and the chain keeps a
+ * pointer to every GROUP'th entry, so that get(i) reads at most GROUP
+ * records, and a group once read is cached for paging through the list
+ * (see gui.TransactionView). Transactions are recreated as they are read.
+ *
+ * A journal is opened read only with Journal.open(dir) for analysis after
+ * the run.
+ *
+ * Author  : Jacky Mallett
+ * Date    : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class Journal implements Closeable
+{
+  private static final int  RECORD  = 64;              // Bytes per record
+  private static final int  SEGMENT = 1 << 20;         // Records per segment
+  private static final int  GROUP   = 256;             // Entries per anchor
+  private static final long NONE    = -1;              // No previous entry
+  private static final int  MAGIC   = 0x544e4a4e;      // "TNJN"
+  private static final int  VERSION = 3;
+
+  // Record layout, byte offsets
+
+  private static final int STEP   = 0;
+  private static final int REASON = 4;
+  private static final int DEBIT  = 8;
+  private static final int CREDIT = 12;
+  private static final int AMOUNT = 16;
+  private static final int LEDGER = 24;                // + 4 * slot
+  private static final int PREV   = 32;                // + 8 * slot
+  private static final int ARG    = 48;                // + 8 * argument
+
+  private static Journal journal = null;               // Journal being written
+
+  private static int     hooks  = 0;                   // Journal and auditor set
+  private static boolean posted = false;               // Ledger.postTransactions
+                                                       // before either set
+  private final File    dir;
+  private final boolean readOnly;
+  private boolean       closed = false;
+
+  private final ArrayList<FileChannel> channels = new ArrayList<>();
+  private final ArrayList<ByteBuffer>  segments = new ArrayList<>();
+
+  private long records = 0;
+
+  private RandomAccessFile text = null;  // Reasons kept as they are
+
+  private final ArrayList<Chain> chains = new ArrayList<>();
+
+  private final long[]      args      = new long[Reason.ARGS];
+  private ArrayList<String> templates = null;  // Reasons, if read only
+
+  private Transaction last = null;       // Newest record, if second slot free
+
+  /**
+   * A ledger's transactions, as entries in the journal. Nb. the fields are
+   * transient, so a checkpoint restores an empty, detached chain, which
+   * attach() replaces.
+   */
+  public static final class Chain extends AbstractList<Transaction>
+    implements RandomAccess
+  {
+    private final transient Journal journal;
+    private final transient int     id;
+    private final transient String  name;
+
+    private transient int    count   = 0;
+    private transient long   tail    = NONE;
+    private transient long[] anchors = new long[16];   // Entry GROUP*(k+1)-1
+
+    private transient long[] page  = null;             // Cached group
+    private transient int    group = -1;
+    private transient int    paged = 0;                // count when cached
+
+    private Chain(Journal journal, int id, String name)
+    {
+      this.journal = journal;
+      this.id      = id;
+      this.name    = name;
+    }
+
+    /**
+     * Append transaction to the journal. Transactions are dropped while
+     * the chain is detached from an open journal.
+     */
+    @Override
+    public boolean add(Transaction t)
+    {
+      if (journal != null)
+        journal.append(this, t);
+
+      return true;
+    }
+
+    @Override
+    public Transaction get(int i)
+    {
+      if (journal == null || i < 0 || i >= count)
+        throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size());
+
+      return journal.read(this, i);
+    }
+
+    @Override
+    public int size()
+    {
+      return journal == null ? 0 : count;
+    }
+
+    /**
+     * @return bank:ledger
+     */
+    public String getName()
+    {
+      return name;
+    }
+
+    /**
+     * Add entry p as the newest in the chain.
+     */
+    private void link(long p)
+    {
+      tail = p;
+
+      if (count % GROUP == GROUP - 1)
+      {
+        int k = count / GROUP;
+
+        if (k == anchors.length)
+          anchors = Arrays.copyOf(anchors, 2 * k);
+
+        anchors[k] = p;
+      }
+      count++;
+    }
+  }
+
+  /**
+   * Constructor - create an empty journal, removing any previous one in
+   * the directory.
+   *
+   * @param dir Directory, created if necessary
+   * @throws IOException if the directory cannot be created
+   */
+  public Journal(File dir) throws IOException
+  {
+    this(dir, false);
+
+    dir.mkdirs();
+
+    if (!dir.isDirectory())
+      throw new IOException("Cannot create directory " + dir);
+
+    File[] old = dir.listFiles((d, n) -> n.startsWith("seg-")
+                                         || n.equals("text")
+                                         || n.equals("index"));
+
+    if (old != null)
+      for (File f : old)
+        f.delete();
+  }
+
+  private Journal(File dir, boolean readOnly)
+  {
+    this.dir      = dir;
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Open an existing journal read only.
+   *
+   * @param dir Directory written by a journal
+   * @return journal, its ledgers available from chain()
+   * @throws IOException if the index or segments cannot be read
+   */
+  public static Journal open(File dir) throws IOException
+  {
+    Journal j = new Journal(dir, true);
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                new FileInputStream(new File(dir, "index")))))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readInt() != RECORD || in.readInt() != SEGMENT)
+        throw new IOException("Not a journal: " + dir);
+
+      j.records   = in.readLong();
+      j.templates = new ArrayList<>();
+
+      for (int i = in.readInt(); i > 0; i--)
+        j.templates.add(in.readUTF());
+
+      for (int i = in.readInt(); i > 0; i--)
+        j.chains.add(new Chain(j, j.chains.size(), in.readUTF()));
+    }
+
+    for (int s = 0; (long) s * SEGMENT < j.records; s++)
+      j.map(s);
+
+    File text = new File(dir, "text");
+
+    if (text.exists())
+      j.text = new RandomAccessFile(text, "r");
+
+    // Rebuild the chains from the records' ledgers
+
+    for (long r = 0; r < j.records; r++)
+    {
+      ByteBuffer b = j.buffer(r);
+      int        o = offset(r);
+
+      j.chains.get(b.getInt(o + LEDGER)).link(2 * r);
+
+      if (b.getInt(o + LEDGER + 4) >= 0)
+        j.chains.get(b.getInt(o + LEDGER + 4)).link(2 * r + 1);
+    }
+    return j;
+  }
+
+  /**
+   * Journal the transactions posted to ledgers from now on, closing the
+   * journal previously set, if any. Transactions are posted to ledgers
+   * (Ledger.postTransactions) while a journal is set. The ledgers are
+   * switched to and from the journal by attach().
+   *
+   * @param j Journal, or null to stop journalling
+   */
+  public static void setJournal(Journal j)
+  {
+    if (journal != null && journal != j)
+    {
+      try
+      {
+        journal.close();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Failed to close journal " + journal.getDirectory()
+                           + ": " + e);
+      }
+    }
+
+    if (journal == null && j != null)
+      hook(true);
+    else if (journal != null && j == null)
+      hook(false);
+
+    journal = j;
+  }
+
+  /**
+   * Post transactions to ledgers while a journal or auditor is set, and
+   * as before once neither is.
+   *
+   * @param on t/f journal or auditor being set
+   */
+  static void hook(boolean on)
+  {
+    if (on && hooks++ == 0)
+    {
+      posted = Ledger.postTransactions;
+      Ledger.postTransactions = true;
+    }
+    else if (!on && --hooks == 0)
+      Ledger.postTransactions = posted;
+  }
+
+  /**
+   * @return t/f transactions are kept in ledgers' lists, other than for a
+   *         journal or auditor
+   */
+  static boolean listed()
+  {
+    return hooks == 0 ? Ledger.postTransactions : posted;
+  }
+
+  /**
+   * @return journal transactions are written to, null if none
+   */
+  public static Journal getJournal()
+  {
+    return journal;
+  }
+
+  /**
+   * Replace the transaction lists of every bank's ledgers (within the
+   * auditor's taps, if any) with chains in the journal set, moving
+   * transactions already listed into it, or if none is set, replace
+   * chains with empty lists. Called at the start of each step, so that
+   * ledgers created since are included.
+   *
+   * @param govt Government whose banks are journalled
+   */
+  public static void attach(Govt govt)
+  {
+    if (govt == null)
+      return;
+
+    for (Bank bank : banks(govt))
+    {
+      for (Ledger ledger : bank.gl.ledgers.values())
+      {
+        List<Transaction> list = Auditor.inner(ledger);
+
+        if (journal == null)
+        {
+          if (list instanceof Chain)
+            Auditor.setInner(ledger, new ArrayList<>());
+        }
+        else if (!(list instanceof Chain && ((Chain) list).journal == journal))
+          Auditor.setInner(ledger, journal.chain(bank.name, ledger, list));
+      }
+    }
+  }
+
+  /**
+   * @return the banks with ledgers, including the central bank
+   */
+  static List<Bank> banks(Govt govt)
+  {
+    ArrayList<Bank> banks = new ArrayList<>();
+
+    for (Bank bank : govt.getBankList().values())
+      if (bank.gl != null)
+        banks.add(bank);
+
+    Bank cb = govt.banks.centralBank;
+
+    if (cb != null && cb.gl != null && !banks.contains(cb))
+      banks.add(cb);
+
+    return banks;
+  }
+
+  /**
+   * Create the chain for a ledger, with the transactions it already
+   * lists.
+   */
+  private synchronized Chain chain(String bank, Ledger ledger,
+                                   List<Transaction> list)
+  {
+    Chain c = new Chain(this, chains.size(), bank + ":" + ledger.name);
+
+    chains.add(c);
+
+    if (list != null && !(list instanceof Chain))
+      for (Transaction t : list)
+        append(c, t);
+
+    return c;
+  }
+
+  /**
+   * Append transaction to ledger's chain.
+   */
+  private synchronized void append(Chain c, Transaction t)
+  {
+    if (closed || readOnly)
+      return;
+
+    long       r;
+    int        slot;
+    ByteBuffer b;
+    int        o;
+
+    if (t == last)                       // Second ledger of newest record
+    {
+      r    = records - 1;
+      slot = 1;
+      b    = buffer(r);
+      o    = offset(r);
+      last = null;
+    }
+    else
+    {
+      if (records % SEGMENT == 0)
+      {
+        try
+        {
+          map((int) (records / SEGMENT));
+        }
+        catch (IOException e)
+        {
+          throw new UncheckedIOException("Unable to extend journal " + dir, e);
+        }
+      }
+
+      r    = records++;
+      slot = 0;
+      b    = buffer(r);
+      o    = offset(r);
+      last = t;
+
+      int code = Reason.parse(t.text, args);
+
+      if (code == Reason.RAW)
+        keep(t.text, args);
+
+      b.putInt(o + STEP, t.time);
+      b.putInt(o + REASON, code);
+      b.putInt(o + DEBIT, t.debitAccountId);
+      b.putInt(o + CREDIT, t.creditAccountId);
+      b.putLong(o + AMOUNT, t.amount);
+      b.putInt(o + LEDGER + 4, -1);
+      b.putLong(o + PREV + 8, NONE);
+
+      for (int a = 0; a < Reason.ARGS; a++)
+        b.putLong(o + ARG + 8 * a, args[a]);
+    }
+
+    b.putInt(o + LEDGER + 4 * slot, c.id);
+    b.putLong(o + PREV + 8 * slot, c.tail);
+    c.link(2 * r + slot);
+  }
+
+  /**
+   * Append text to the text file, returning its offset and length in
+   * args.
+   */
+  private void keep(String s, long[] args)
+  {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    try
+    {
+      if (text == null)
+        text = new RandomAccessFile(new File(dir, "text"), "rw");
+
+      args[0] = text.length();
+      args[1] = bytes.length;
+
+      text.seek(args[0]);
+      text.write(bytes);
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException("Unable to extend journal " + dir, e);
+    }
+  }
+
+  /**
+   * @return text kept at offset, of length bytes
+   */
+  private String kept(long offset, long length)
+  {
+    byte[] bytes = new byte[(int) length];
+
+    try
+    {
+      if (text == null)
+        throw new FileNotFoundException(new File(dir, "text").getPath());
+
+      text.seek(offset);
+      text.readFully(bytes);
+    }
+    catch (IOException e)
+    {
+      return "Unreadable reason: " + e;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read entry i of chain.
+   */
+  private synchronized Transaction read(Chain c, int i)
+  {
+    int g = i / GROUP;
+
+    if (c.page == null)
+      c.page = new long[GROUP];
+
+    if (g != c.group || c.paged != c.count)
+    {
+      // Walk back from the last entry of the group to its first
+
+      int  end = Math.min(c.count, (g + 1) * GROUP) - 1;
+      long p   = end == c.count - 1 ? c.tail : c.anchors[g];
+
+      for (int k = end; k >= g * GROUP; k--)
+      {
+        c.page[k - g * GROUP] = p;
+        p = buffer(p / 2).getLong(offset(p / 2) + PREV + 8 * (int) (p % 2));
+      }
+
+      c.group = g;
+      c.paged = c.count;
+    }
+
+    long       r = c.page[i - g * GROUP] / 2;
+    ByteBuffer b = buffer(r);
+    int        o = offset(r);
+
+    int    code = b.getInt(o + REASON);
+    long[] arg  = new long[Reason.ARGS];
+
+    for (int a = 0; a < Reason.ARGS; a++)
+      arg[a] = b.getLong(o + ARG + 8 * a);
+
+    String s;
+
+    if (code == Reason.RAW)
+      s = kept(arg[0], arg[1]);
+    else
+      s = templates == null ? Reason.render(code, arg)
+                            : Reason.render(templates.get(code), arg);
+
+    Transaction t = new Transaction(s, b.getInt(o + DEBIT),
+                                    b.getInt(o + CREDIT), b.getLong(o + AMOUNT));
+    t.time = b.getInt(o + STEP);
+
+    return t;
+  }
+
+  /**
+   * Map segment s.
+   */
+  private void map(int s) throws IOException
+  {
+    File        f  = new File(dir, String.format("seg-%05d.dat", s));
+    FileChannel fc = readOnly
+                     ? FileChannel.open(f.toPath(), StandardOpenOption.READ)
+                     : FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.CREATE);
+    MappedByteBuffer mb = fc.map(readOnly ? FileChannel.MapMode.READ_ONLY
+                                          : FileChannel.MapMode.READ_WRITE,
+                                 0, (long) SEGMENT * RECORD);
+
+    channels.add(fc);
+    segments.add(mb);
+  }
+
+  private ByteBuffer buffer(long r)
+  {
+    return segments.get((int) (r / SEGMENT));
+  }
+
+  private static int offset(long r)
+  {
+    return (int) (r % SEGMENT) * RECORD;
+  }
+
+  /**
+   * @return no. of records written
+   */
+  public synchronized long getRecords()
+  {
+    return records;
+  }
+
+  /**
+   * @return names of the ledgers journalled, as bank:ledger, in the order
+   *         they were attached
+   */
+  public synchronized List<String> ledgers()
+  {
+    ArrayList<String> names = new ArrayList<>();
+
+    for (Chain c : chains)
+      names.add(c.name);
+
+    return names;
+  }
+
+  /**
+   * Return the transactions of a ledger. The ledger may have been
+   * attached more than once (e.g. after a reset), in which case its
+   * latest chain is returned.
+   *
+   * @param name bank:ledger
+   * @return transactions, null if not journalled
+   */
+  public synchronized List<Transaction> chain(String name)
+  {
+    for (int i = chains.size() - 1; i >= 0; i--)
+    {
+      if (chains.get(i).name.equals(name))
+        return chains.get(i);
+    }
+    return null;
+  }
+
+  /**
+   * Write the index, so that the journal can be opened after the run. The
+   * segments are written back by the operating system.
+   *
+   * @throws IOException on write failure
+   */
+  public synchronized void flush() throws IOException
+  {
+    if (readOnly || closed)
+      return;
+
+    File index = new File(dir, "index.tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                  new FileOutputStream(index))))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(RECORD);
+      out.writeInt(SEGMENT);
+      out.writeLong(records);
+
+      List<String> reasons = Reason.templates();
+
+      out.writeInt(reasons.size());
+
+      for (String reason : reasons)
+        out.writeUTF(reason);
+
+      out.writeInt(chains.size());
+
+      for (Chain c : chains)
+        out.writeUTF(c.name);
+    }
+
+    File target = new File(dir, "index");
+
+    if (!index.renameTo(target))
+    {
+      target.delete();
+
+      if (!index.renameTo(target))
+        throw new IOException("Unable to write " + target);
+    }
+  }
+
+  /**
+   * Flush and release the journal. Chains attached to it are empty from
+   * now on. Nb. the mappings are released when they are garbage collected.
+   *
+   * @throws IOException on write failure
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (closed)
+      return;
+
+    flush();
+    closed = true;
+
+    for (FileChannel fc : channels)
+      fc.close();
+
+    if (text != null)
+      text.close();
+
+    for (Chain c : chains)
+      c.count = 0;
+
+    channels.clear();
+    segments.clear();
+    last = null;
+  }
+
+  /**
+   * @return directory journal is held in
+   */
+  public File getDirectory()
+  {
+    return dir;
+  }
+}
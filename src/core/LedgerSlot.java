@@ -0,0 +1,43 @@
+/* Program    : Threadneedle
+ *
+ * LedgerSlot : Typed handles for the ledgers defined in
+ *              resources/ledgers/ledgers.def and cb.def.
+ *
+ * Each slot names a ledger of a bank's general ledger, and indexes it in
+ * that bank's LedgerTable, so that code which reads a bank's ledgers
+ * every step resolves them once rather than by name on every call.
+ *
+ * Author     : Jacky Mallett
+ * Date       : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package core;
+
+public enum LedgerSlot
+{
+  LOAN("loan"),
+  CASH("cash"),
+  RESERVE("reserve"),
+  LOSS_RESERVE("loss_reserve"),
+  IB_DEBT("ib_debt"),
+  DEPOSIT("deposit"),
+  INTEREST_INCOME("interest_income"),
+  LOSS_PROVISION("loss_provision"),
+  RETAINED_EARNINGS("retained_earnings"),
+  NON_CASH("non-cash"),
+  CAPITAL("capital"),
+  TREASURY("treasury"),                         // Central bank only
+  DEBT("debt");                                 // Central bank only
+
+  public final String ledger;                   // Name in the .def files
+
+  LedgerSlot(String ledger)
+  {
+    this.ledger = ledger;
+  }
+}
@@ -0,0 +1,75 @@
+/* Program     : Threadneedle
+ *
+ * LedgerTable : A bank's general ledger layout, resolved once into a table
+ *               indexed by LedgerSlot.
+ *
+ * GeneralLedger finds ledgers by name in its LinkedHashMaps on every call.
+ * The table holds the ledger for each slot the bank has, so that code
+ * which reads a bank's ledgers every step resolves them once:
+ *
+ *   table = LedgerTable.of(table, bank);
+ *   long income = table.total(LedgerSlot.INTEREST_INCOME);
+ *
+ * A bank's ledgers are fixed once it is created, so a table stays valid
+ * for as long as the bank keeps its general ledger. Holders keep it in a
+ * transient field, and of() replaces it when the general ledger has been
+ * (e.g. by a checkpoint restore).
+ *
+ * Author      : Jacky Mallett
+ * Date        : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package core;
+
+public final class LedgerTable
+{
+  private static final LedgerSlot[] SLOTS = LedgerSlot.values();
+
+  private final GeneralLedger gl;
+  private final Ledger[]      ledgers = new Ledger[SLOTS.length];
+
+  /**
+   * Constructor - resolve each slot in the general ledger.
+   *
+   * @param gl General ledger
+   */
+  public LedgerTable(GeneralLedger gl)
+  {
+    this.gl = gl;
+
+    for (LedgerSlot s : SLOTS)
+      ledgers[s.ordinal()] = gl.ledgers.get(s.ledger);
+  }
+
+  /**
+   * Return table for bank, re-using table if it is still valid.
+   *
+   * @param table Table held for bank, null if none
+   * @param bank  Bank
+   * @return table
+   */
+  public static LedgerTable of(LedgerTable table, Bank bank)
+  {
+    return table != null && table.gl == bank.gl ? table
+                                                : new LedgerTable(bank.gl);
+  }
+
+  /**
+   * @param slot Slot
+   * @return ledger's total
+   */
+  public long total(LedgerSlot slot)
+  {
+    Ledger l = ledgers[slot.ordinal()];
+
+    if (l == null)
+      throw new RuntimeException("Unknown ledger: " + slot.ledger);
+
+    return l.total();
+  }
+}
@@ -0,0 +1,558 @@
+/* Program: Threadneedle
+ *
+ * PhaseEngine : Simulation engine with the step evaluation broken out into
+ *               explicit phases.
+ *
+ * evaluate() performs the same sequence of operations as
+ * SimulationEngine.evaluate(), but as separate phases which can be
+ * instrumented or replaced individually. When per-agent random streams are
+ * enabled (Base.streams) each agent's stream is selected before it is
+ * evaluated, and each shuffle uses its own stream.
+ *
+ * The statistics which SimulationEngine collects in a separate pass over
+ * the persons after they have all been evaluated are accumulated as each
+ * person is evaluated, so no phase other than the evaluation itself walks
+ * the population. Deposits are read directly from the agent's account.
+ *
+ * The time taken by each phase is recorded in the Profiler, and reported
+ * by the CLI profile command.
+ *
+ * With agent cost sampling enabled (setAgentCost) the wall time and
+ * allocation of agent evaluations are sampled and attributed to the
+ * agent's class, and reported by the CLI agentcost command.
+ *
+ * With deposit totals enabled (setDepositTotals) the company and market
+ * deposits are read from totals maintained from the entries posted to the
+ * banks' ledgers (see DepositTotals), rather than summed over them. Worker
+ * deposits are summed as each person is evaluated, as SimulationEngine
+ * does, which the totals, kept as of the moment they are read, cannot
+ * reproduce. The bank deposit and loan totals are computed within
+ * Govt.evaluate().
+ *
+ * The aggregate deposit statistics and distribution statistics are lazy
+ * (see Statistic.setLazy()), and with Statistic.lazyEvaluation on are only
+ * computed while something subscribes to them.
+ *
+ * With distribution statistics enabled (setDistributions) the deposits,
+ * debts and income of persons and of companies are summarised every n
+ * steps, in a separate pass over the population which follows the
+ * evaluation (see statistics.DistributionStatistic). With deposit totals
+ * also enabled, the deposit distributions are maintained by them as
+ * entries are posted, and only debts and income are summarised in the
+ * pass. The Gini coefficients are shown on the inequality chart.
+ *
+ * With scheduling enabled (setScheduling) companies, persons and banks
+ * implementing Schedulable are only evaluated on the steps they request,
+ * or when woken, using a WakeCalendar.
+ *
+ * While a Journal or Auditor is set, the banks' ledgers are attached to
+ * it at the start of each step, and it is closed when the simulation is
+ * reset. The auditor checks the books at the end of each step.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+import java.util.*;
+
+import base.Base.Phase;
+import statistics.AgentCost;
+import statistics.DistributionStatistic;
+import statistics.LatencyHistogram;
+import statistics.Profiler;
+import statistics.Statistic;
+
+import static base.Base.*;
+
+public class PhaseEngine extends SimulationEngine
+{
+  private int income;                  // Nb. int, as in SimulationEngine
+
+  private WakeCalendar    calendar = null;   // null - evaluate every agent
+
+  private transient AgentCost cost = null;   // null - no cost sampling
+
+  private transient DepositTotals totals = null;   // null - sum deposits
+
+  // Distributions of deposits, debts and income for persons [0..2], and
+  // companies [3..5], summarised every distributionSteps steps.
+
+  private transient DistributionStatistic[] distributions = null;
+  private transient int distributionSteps = 0;
+
+  // Phase timings
+
+  private static final LatencyHistogram T_SHUFFLE   = Profiler.phase("shuffle");
+  private static final LatencyHistogram T_GOVT      = Profiler.phase("govt");
+  private static final LatencyHistogram T_MARKETS   = Profiler.phase("markets");
+  private static final LatencyHistogram T_COMPANIES = Profiler.phase("companies");
+  private static final LatencyHistogram T_PERSONS   = Profiler.phase("persons");
+  private static final LatencyHistogram T_BANKS     = Profiler.phase("banks");
+  private static final LatencyHistogram T_STATS     = Profiler.phase("statistics");
+  private static final LatencyHistogram T_ROLLOVER  = Profiler.phase("rollover");
+  private static final LatencyHistogram T_STEP      = Profiler.phase("step");
+  private static final LatencyHistogram T_DISTRIB   = Profiler.phase("distributions");
+  private static final LatencyHistogram T_AUDIT     = Profiler.phase("audit");
+
+  public PhaseEngine()
+  {
+    super();
+    lazyStatistics();
+  }
+
+  @Override
+  public void resetAll()
+  {
+    super.resetAll();
+    lazyStatistics();
+    Journal.setJournal(null);
+    Auditor.setAuditor(null);
+  }
+
+  /**
+   * Declare the aggregate deposit statistics, which are created by
+   * SimulationEngine, lazy. Nb. they are recreated by resetAll().
+   */
+  private void lazyStatistics()
+  {
+    s_totalWorkerDeposits.setLazy(true);
+    s_totalCompanyDeposits.setLazy(true);
+    s_totalMarketDeposits.setLazy(true);
+  }
+
+  /**
+   * Turn scheduling of Schedulable agents on or off. When turned off all
+   * agents are evaluated every step.
+   *
+   * @param on t/f only evaluate Schedulable agents when due
+   */
+  public void setScheduling(boolean on)
+  {
+    calendar = on ? new WakeCalendar(step) : null;
+  }
+
+  public boolean getScheduling()
+  {
+    return calendar != null;
+  }
+
+  /**
+   * Wake agent, so that it is evaluated on the next step even if asleep.
+   * Should be called for any event that the agent must respond to.
+   *
+   * @param agent Agent
+   */
+  public void wake(Agent agent)
+  {
+    if (calendar != null)
+      calendar.wake(agent);
+  }
+
+  /**
+   * @return Number of agents currently asleep
+   */
+  public int asleep()
+  {
+    return calendar == null ? 0 : calendar.asleep();
+  }
+
+  /**
+   * Turn sampling of agent evaluation cost on or off. Starts a new window.
+   *
+   * @param every Sample one in every n evaluations of each agent class,
+   *              0 to turn off
+   */
+  public void setAgentCost(int every)
+  {
+    cost = every > 0 ? new AgentCost(every) : null;
+  }
+
+  /**
+   * @return Agent cost accumulated since last report, null if not enabled
+   */
+  public AgentCost getAgentCost()
+  {
+    return cost;
+  }
+
+  /**
+   * Turn deposit totals on or off. When on, the company and market deposit
+   * statistics are read from totals maintained as entries are posted, and
+   * transactions are posted to ledgers (Ledger.postTransactions).
+   *
+   * @param on t/f maintain deposit totals
+   */
+  public void setDepositTotals(boolean on)
+  {
+    totals = on ? new DepositTotals(this) : null;
+    Auditor.setTotals(totals);
+    keepDistributions();
+  }
+
+  public boolean getDepositTotals()
+  {
+    return totals != null;
+  }
+
+  /**
+   * Turn distribution statistics on or off. Nb. not saved by checkpoints.
+   *
+   * @param every Summarise the distributions every n steps, 0 to turn off
+   */
+  public void setDistributions(int every)
+  {
+    if (every <= 0)
+    {
+      distributions = null;
+      keepDistributions();
+      return;
+    }
+
+    distributionSteps = every;
+    distributions     = new DistributionStatistic[6];
+
+    String[] names = {"persons:deposits", "persons:debts", "persons:income",
+                      "companies:deposits", "companies:debts",
+                      "companies:income"};
+
+    for (int i = 0; i < names.length; i++)
+      distributions[i] = new DistributionStatistic(names[i], "inequality",
+                                                   every);
+    keepDistributions();
+  }
+
+  /**
+   * Have the deposit totals, if set, maintain the deposit distributions.
+   */
+  private void keepDistributions()
+  {
+    if (totals == null)
+      return;
+
+    totals.setDistribution(DepositTotals.PERSONS,
+                           distributions == null ? null : distributions[0]);
+    totals.setDistribution(DepositTotals.COMPANIES,
+                           distributions == null ? null : distributions[3]);
+  }
+
+  /**
+   * Evaluate one step of the simulation.
+   */
+  @Override
+  public void evaluate()
+  {
+    DEBUG("====================================================");
+
+    long start = System.nanoTime();
+    long t     = start;
+    long stats;
+
+    if (calendar != null)
+      calendar.advance(step);
+
+    Journal.attach(govt);
+    Auditor.attach(govt);
+
+    shuffle();
+    t = Profiler.lap(T_SHUFFLE, t);
+
+    evaluateGovt();
+    t = Profiler.lap(T_GOVT, t);
+
+    evaluateMarkets();
+    t = Profiler.lap(T_MARKETS, t);
+
+    evaluateCompanies();
+    t = Profiler.lap(T_COMPANIES, t);
+
+    evaluatePersons();
+    t = Profiler.lap(T_PERSONS, t);
+
+    companyStatistics();
+    stats = System.nanoTime() - t;
+
+    t = System.nanoTime();
+    evaluateBanks();
+    t = Profiler.lap(T_BANKS, t);
+
+    marketStatistics();
+    T_STATS.record(stats + System.nanoTime() - t);
+
+    if (distributions != null && (step + 1) % distributionSteps == 0
+        && distributionsWanted())
+    {
+      t = System.nanoTime();
+      distributionStatistics();
+      Profiler.lap(T_DISTRIB, t);
+    }
+
+    if (Auditor.getAuditor() != null)
+    {
+      t = System.nanoTime();
+      Auditor.getAuditor().endStep();
+      Profiler.lap(T_AUDIT, t);
+    }
+
+    t = System.nanoTime();
+    step++;
+    Statistic.rolloverAll();
+    t = Profiler.lap(T_ROLLOVER, t);
+
+    T_STEP.record(t - start);
+
+    if (cost != null)
+      cost.endStep();
+
+    if (weakHashMap.size() > 0)
+    {
+      System.out.println("DBG: Check container removal failed for: ");
+
+      for (String s : weakHashMap.values())
+        System.out.println("\t" + s);
+    }
+  }
+
+  /**
+   * Randomise order of evaluation for companies and persons.
+   */
+  protected void shuffle()
+  {
+    selectStream(Phase.SHUFFLE, 0);
+    Collections.shuffle(companies, random);
+
+    selectStream(Phase.SHUFFLE, 1);
+    Collections.shuffle(employees, random);
+  }
+
+  protected void evaluateGovt()
+  {
+    select(Phase.GOVT, govt);
+    evaluate(govt, false);
+  }
+
+  /**
+   * Evaluate markets, as Markets.evaluate().
+   */
+  protected void evaluateMarkets()
+  {
+    for (Market market : govt.markets.markets)
+    {
+      select(Phase.MARKETS, market);
+      evaluate(market, false);
+    }
+  }
+
+  protected void evaluateCompanies()
+  {
+    for (int i = 0; i < companies.size(); i++)
+    {
+      Company company = companies.get(i);
+
+      if (!due(company))
+        continue;
+
+      select(Phase.COMPANIES, company);
+      evaluate(company, false);
+      reschedule(company);
+    }
+  }
+
+  /**
+   * Evaluate persons, accumulating the worker statistics which are
+   * collected as each person is evaluated.
+   */
+  protected void evaluatePersons()
+  {
+    income = 0;
+
+    boolean deposits = s_totalWorkerDeposits.wanted();
+
+    for (int i = 0; i < employees.size(); i++)
+    {
+      Person p = employees.get(i);
+
+      if (due(p))
+      {
+        select(Phase.PERSONS, p);
+        evaluate(p, true);
+        reschedule(p);
+      }
+
+      if (deposits)
+        s_totalWorkerDeposits.add(deposit(p));
+      income += p.s_income.get();
+
+      p.resetRoundStatistics();
+    }
+  }
+
+  /**
+   * Company deposits are sampled before the banks are evaluated.
+   */
+  protected void companyStatistics()
+  {
+    if (!s_totalCompanyDeposits.wanted())
+      return;
+
+    if (totals != null)
+    {
+      s_totalCompanyDeposits.add(totals.total(DepositTotals.COMPANIES));
+      return;
+    }
+
+    for (Company c : companies)
+      s_totalCompanyDeposits.add(deposit(c));
+  }
+
+  protected void evaluateBanks()
+  {
+    for (Bank bank : govt.getBankList().values())
+    {
+      if (!due(bank))
+        continue;
+
+      select(Phase.BANKS, bank);
+      evaluate(bank, false);
+      reschedule(bank);
+    }
+  }
+
+  /**
+   * Collect end of step market and velocity statistics.
+   */
+  protected void marketStatistics()
+  {
+    Iterator<Market> it       = govt.markets.getIterator();
+    boolean          deposits = totals == null
+                                && s_totalMarketDeposits.wanted();
+
+    while (it.hasNext())
+    {
+      Market market = it.next();
+
+      if (deposits)
+        s_totalMarketDeposits.add(deposit(market));
+      s_totalValueGoodsSold.add(market.resetTotalSaleValue());
+    }
+
+    if (totals != null && s_totalMarketDeposits.wanted())
+      s_totalMarketDeposits.add(totals.total(DepositTotals.MARKETS));
+
+    s_totalValueGoodsSold.add(income);
+
+    if (govt.s_totalActiveMoneySupply.getCurrent() != 0)
+      s_calculatedVelocity.add(s_totalValueGoodsSold.getCurrent()
+                               / govt.s_totalActiveMoneySupply.getCurrent());
+  }
+
+  /**
+   * Summarise the distributions of deposits, debts and income, and add
+   * them to their statistics, which roll over at the end of this step.
+   * Deposits maintained by the deposit totals are not summarised.
+   */
+  protected void distributionStatistics()
+  {
+    boolean deposits = totals == null;
+
+    if (!deposits)
+      totals.check();
+
+    for (int i = 0; i < distributions.length; i++)
+      if (deposits || i % 3 != 0)
+        distributions[i].clear();
+
+    for (int i = 0; i < employees.size(); i++)
+      sample(employees.get(i), distributions, 0, deposits);
+
+    for (Company c : companies)
+      sample(c, distributions, 3, deposits);
+
+    for (DistributionStatistic d : distributions)
+      d.publish();
+  }
+
+  private boolean distributionsWanted()
+  {
+    for (DistributionStatistic d : distributions)
+      if (d.wanted())
+        return true;
+
+    return false;
+  }
+
+  /**
+   * Add agent's deposit, if sampled, debt and income this step to d[i],
+   * d[i+1], d[i+2].
+   */
+  private static void sample(Agent agent, DistributionStatistic[] d, int i,
+                             boolean deposit)
+  {
+    if (deposit)
+      d[i].add(deposit(agent));
+    d[i + 1].add(agent.getDebt());
+    d[i + 2].add(agent.s_income.getCurrent());
+  }
+
+  /**
+   * Evaluate agent, sampling its cost if enabled.
+   */
+  private void evaluate(Agent agent, boolean report)
+  {
+    if (cost == null || !cost.sample(agent.getClass()))
+    {
+      agent.evaluate(step, report);
+      return;
+    }
+
+    long t = System.nanoTime();
+    long b = AgentCost.allocated();
+
+    agent.evaluate(step, report);
+
+    cost.record(agent.getClass(), System.nanoTime() - t,
+                AgentCost.allocated() - b);
+  }
+
+  /**
+   * Return agent's deposit, read directly from its account rather than
+   * through the bank's account lookup, since it is called for every agent
+   * on every step.
+   */
+  static long deposit(Agent agent)
+  {
+    Account account = agent.getAccount();
+
+    return account == null ? agent.getDeposit() : account.deposit;
+  }
+
+  private boolean due(Agent agent)
+  {
+    return calendar == null || calendar.due(agent);
+  }
+
+  /**
+   * Put a Schedulable agent to sleep until the step it next requests.
+   */
+  private void reschedule(Agent agent)
+  {
+    if (calendar != null && agent instanceof Schedulable)
+      calendar.schedule(agent, ((Schedulable) agent).nextWake(step));
+  }
+
+  /**
+   * Select agent's random stream for phase.
+   */
+  private static void select(Phase phase, Agent agent)
+  {
+    if (streams)
+      selectStream(phase, agent.Id == null ? 0 : agent.Id);
+  }
+}
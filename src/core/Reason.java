@@ -0,0 +1,298 @@
+/* Program : Threadneedle
+ *
+ * Reason  : Registry of transaction reason codes.
+ *
+ * A reason is a template, registered once for a small integer code, with
+ * up to ARGS numeric arguments ({} in the template), and rendered as text
+ * only when it is displayed:
+ *
+ *   int code = Reason.parse(t.text, args);
+ *   ...
+ *   Reason.render(code, args);
+ *
+ * Formatted text (e.g. the text of the transactions posted by
+ * GeneralLedger) is reduced to a template and arguments by parse(), which
+ * takes each number in the text as an argument, so that "Closed account
+ * 12" and "Closed account 13" share a code. Matching a text against the
+ * templates registered allocates nothing; a new template is only created
+ * the first time its text is seen.
+ *
+ * Numbers with leading zeros, or beyond the ARGS'th, are part of the
+ * template, as is any other text which varies, so the number of templates
+ * is not bounded by the code which posts transactions. At most MAX are
+ * registered; once the registry is full, a text which matches none of
+ * them is given the code RAW, and must be kept as it is by the caller.
+ *
+ * Author  : Jacky Mallett
+ * Date    : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class Reason
+{
+  public static final int ARGS = 2;                 // Max. arguments
+  public static final int MAX  = 4096;              // Max. templates
+  public static final int RAW  = -1;                // Text matches none
+
+  private static final char ARG    = '\u001f';      // Argument in template
+  private static final int  DIGITS = 18;            // Max. digits in argument
+
+  private static final ArrayList<String> templates = new ArrayList<>();
+  private static final ArrayList<Integer> hashes   = new ArrayList<>();
+
+  private static int[] table = new int[256];        // code + 1 by hash, 0 free
+
+  private Reason() {}
+
+  /**
+   * Return the code for formatted text, with the numbers it contains.
+   *
+   * @param text text, null for none
+   * @param args returns the arguments, length at least ARGS, unused 0
+   * @return code, RAW if text matches no template and MAX are registered
+   */
+  public static synchronized int parse(String text, long[] args)
+  {
+    if (text == null)
+      text = "";
+
+    int h = hash(text, args);
+
+    for (int i = h & (table.length - 1); table[i] != 0;
+         i = (i + 1) & (table.length - 1))
+    {
+      int code = table[i] - 1;
+
+      if (hashes.get(code) == h && matches(text, templates.get(code)))
+        return code;
+    }
+
+    if (templates.size() >= MAX)
+      return RAW;
+
+    // First instance: build its template
+
+    StringBuilder sb = new StringBuilder(text.length());
+    int           n  = 0;
+
+    for (int i = 0; i < text.length(); )
+    {
+      int end = n < ARGS ? argument(text, i) : i;
+
+      if (end > i)
+      {
+        sb.append(ARG);
+        n++;
+        i = end;
+      }
+      else
+        sb.append(text.charAt(i++));
+    }
+    return intern(sb.toString());
+  }
+
+  /**
+   * @return code of template, added to the registry if new
+   */
+  private static int intern(String template)
+  {
+    int h = hash(template, null);
+    int i = h & (table.length - 1);
+
+    for (; table[i] != 0; i = (i + 1) & (table.length - 1))
+    {
+      int code = table[i] - 1;
+
+      if (hashes.get(code) == h && templates.get(code).equals(template))
+        return code;
+    }
+
+    int code = templates.size();             // Nb. < MAX, see parse()
+
+    templates.add(template);
+    hashes.add(h);
+    table[i] = code + 1;
+
+    if (2 * templates.size() > table.length)
+      rehash();
+
+    return code;
+  }
+
+  private static void rehash()
+  {
+    table = new int[2 * table.length];
+
+    for (int code = 0; code < templates.size(); code++)
+    {
+      int i = hashes.get(code) & (table.length - 1);
+
+      while (table[i] != 0)
+        i = (i + 1) & (table.length - 1);
+
+      table[i] = code + 1;
+    }
+  }
+
+  /**
+   * Return the hash of text's template, and its arguments if args is not
+   * null. The hash of a template is that of any text which parses to it.
+   */
+  private static int hash(String text, long[] args)
+  {
+    int h = 0;
+    int n = 0;
+
+    if (args != null)
+      Arrays.fill(args, 0, ARGS, 0);
+
+    for (int i = 0; i < text.length(); )
+    {
+      int end = args != null && n < ARGS ? argument(text, i) : i;
+
+      if (end > i)
+      {
+        args[n++] = Long.parseLong(text, i, end, 10);
+        h = 31 * h + ARG;
+        i = end;
+      }
+      else
+        h = 31 * h + text.charAt(i++);
+    }
+    return h;
+  }
+
+  /**
+   * @return t/f text parses to template
+   */
+  private static boolean matches(String text, String template)
+  {
+    int i = 0;
+    int n = 0;
+
+    for (int k = 0; k < template.length(); k++)
+    {
+      int end = n < ARGS ? argument(text, i) : i;
+
+      if (template.charAt(k) == ARG)
+      {
+        if (end == i)
+          return false;
+
+        n++;
+        i = end;
+      }
+      else if (end > i || i == text.length()
+               || text.charAt(i++) != template.charAt(k))
+        return false;
+    }
+    return i == text.length();
+  }
+
+  /**
+   * @return end of the number starting at i, i if there is none
+   */
+  private static int argument(String text, int i)
+  {
+    int end = i;
+
+    while (end < text.length() && digit(text.charAt(end)))
+      end++;
+
+    if (end == i || end - i > DIGITS || end - i > 1 && text.charAt(i) == '0')
+      return i;
+
+    if (i > 0 && digit(text.charAt(i - 1)))
+      return i;                                 // Tail of a longer number
+
+    return end;
+  }
+
+  private static boolean digit(char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Render reason as text.
+   *
+   * @param code Code
+   * @param args Arguments
+   * @return text
+   */
+  public static String render(int code, long... args)
+  {
+    String template;
+
+    synchronized (Reason.class)
+    {
+      template = code >= 0 && code < templates.size() ? templates.get(code)
+                                                      : "Reason " + code;
+    }
+    return render(template, args);
+  }
+
+  /**
+   * Render a template, as held by the registry, e.g. from templates(),
+   * as text.
+   *
+   * @param template Template
+   * @param args     Arguments
+   * @return text
+   */
+  public static String render(String template, long... args)
+  {
+    if (template.indexOf(ARG) < 0)
+      return template;
+
+    StringBuilder sb = new StringBuilder(template.length() + 16);
+    int           n  = 0;
+
+    for (int i = 0; i < template.length(); i++)
+    {
+      char c = template.charAt(i);
+
+      if (c != ARG)
+        sb.append(c);
+      else
+        sb.append(n < args.length ? args[n++] : 0);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param code Code
+   * @return template, with {} for each argument
+   */
+  public static synchronized String template(int code)
+  {
+    return templates.get(code).replace(String.valueOf(ARG), "{}");
+  }
+
+  /**
+   * @return templates registered, in order of code, as held by the
+   *         registry (see render(String, long...))
+   */
+  public static synchronized List<String> templates()
+  {
+    return new ArrayList<>(templates);
+  }
+
+  /**
+   * @return no. of codes registered
+   */
+  public static synchronized int size()
+  {
+    return templates.size();
+  }
+}
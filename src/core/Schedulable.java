@@ -0,0 +1,34 @@
+/* Program: Threadneedle
+ *
+ * Schedulable : Agents which are only active on some steps.
+ *
+ * When scheduling is enabled (PhaseEngine.setScheduling) an agent
+ * implementing Schedulable is asked after each evaluation for the next step
+ * on which it must be evaluated again, and is skipped until then unless it
+ * is woken (PhaseEngine.wake). Agents which do not implement Schedulable
+ * are evaluated every step.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+public interface Schedulable
+{
+  /**
+   * Return the next step on which this agent must be evaluated. Nb. the
+   * agent must be evaluated on every step on which anything it does
+   * would have an effect, including paying loan installments and taxes.
+   *
+   * @param step Step just evaluated
+   * @return next step to evaluate, step + 1 for every step
+   */
+  int nextWake(int step);
+}
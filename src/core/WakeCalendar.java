@@ -0,0 +1,143 @@
+/* Program: Threadneedle
+ *
+ * WakeCalendar : Calendar queue of sleeping agents, ordered by the step on
+ *                which they are next to be evaluated.
+ *
+ * Steps within HORIZON of the current step are held in a ring of buckets,
+ * one per step, so scheduling and waking are O(1). Later steps are held in
+ * an overflow map and moved into the ring as it reaches them. An agent may
+ * be woken before its scheduled step, in which case its bucket entry is
+ * left in place and ignored when the bucket is reached.
+ *
+ * Author  :  (c) Jacky Mallett
+ * Date    :  October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package core;
+
+import java.util.*;
+
+public class WakeCalendar
+{
+  private static final int HORIZON = 256;          // Nb. power of 2
+
+  private final ArrayList<ArrayList<Agent>> buckets
+    = new ArrayList<>(HORIZON);
+
+  private final TreeMap<Integer, ArrayList<Agent>> overflow = new TreeMap<>();
+
+  // Step each sleeping agent wakes on
+
+  private final IdentityHashMap<Agent, Integer> sleeping
+    = new IdentityHashMap<>();
+
+  private int current;                     // Step last advanced to
+
+  /**
+   * Constructor
+   *
+   * @param step Current simulation step
+   */
+  public WakeCalendar(int step)
+  {
+    current = step;
+
+    for (int i = 0; i < HORIZON; i++)
+      buckets.add(new ArrayList<>());
+  }
+
+  /**
+   * Advance the calendar to step, waking all agents scheduled for it.
+   *
+   * @param step Step about to be evaluated
+   */
+  public void advance(int step)
+  {
+    while (current < step)
+    {
+      current++;
+
+      ArrayList<Agent> bucket = buckets.get(current & (HORIZON - 1));
+
+      for (Agent agent : bucket)
+      {
+        Integer wake = sleeping.get(agent);
+
+        if (wake != null && wake <= current)
+          sleeping.remove(agent);
+      }
+      bucket.clear();
+
+      // Move entries that are now within the horizon into the ring
+
+      Integer first;
+
+      while ((first = overflowFirst()) != null
+             && first < current + HORIZON)
+      {
+        for (Agent agent : overflow.remove(first))
+          buckets.get(first & (HORIZON - 1)).add(agent);
+      }
+    }
+  }
+
+  /**
+   * Put agent to sleep until the given step.
+   *
+   * @param agent Agent
+   * @param wake  Step to next evaluate agent on
+   */
+  public void schedule(Agent agent, int wake)
+  {
+    if (wake <= current + 1)
+    {
+      sleeping.remove(agent);
+      return;
+    }
+
+    sleeping.put(agent, wake);
+
+    if (wake < current + HORIZON)
+      buckets.get(wake & (HORIZON - 1)).add(agent);
+    else
+      overflow.computeIfAbsent(wake, k -> new ArrayList<>()).add(agent);
+  }
+
+  /**
+   * Wake agent, so that it is evaluated on the next step.
+   *
+   * @param agent Agent
+   */
+  public void wake(Agent agent)
+  {
+    sleeping.remove(agent);
+  }
+
+  /**
+   * @param agent Agent
+   * @return t/f agent is to be evaluated on the current step
+   */
+  public boolean due(Agent agent)
+  {
+    return sleeping.isEmpty() || !sleeping.containsKey(agent);
+  }
+
+  /**
+   * @return Number of agents currently asleep
+   */
+  public int asleep()
+  {
+    return sleeping.size();
+  }
+
+  private Integer overflowFirst()
+  {
+    return overflow.isEmpty() ? null : overflow.firstKey();
+  }
+}
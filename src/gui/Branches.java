@@ -0,0 +1,142 @@
+/* Program: Threadneedle
+ *
+ * Branches : Run what-if branches from a common simulation state.
+ *
+ * Each branch starts from a copy of the same checkpoint, in its own
+ * SimulationContext, applies its CLI commands (e.g. "setbaserate 5" or
+ * "set Bank-4 capitalPct 8"), and runs for the given number of steps. The
+ * branches run concurrently on a bounded pool of threads.
+ *
+ * Each branch writes its results to <outdir>/branch-NN/ :
+ *
+ *   commands        - the commands applied to the branch
+ *   statistics.csv  - history of all statistics (see Statistic.saveToCsv)
+ *
+ * Author : Copyright (c) Jacky Mallett
+ * Date   : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package gui;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Branches
+{
+  private final byte[] state;               // Checkpoint branches start from
+  private final int    steps;               // Steps to run each branch
+  private final File   outdir;              // Directory for results
+
+  private final ArrayList<String[]> branches = new ArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param state  Checkpoint to start every branch from
+   * @param steps  Number of steps to run each branch
+   * @param outdir Directory to write branch results to
+   */
+  public Branches(byte[] state, int steps, File outdir)
+  {
+    this.state  = state;
+    this.steps  = steps;
+    this.outdir = outdir;
+  }
+
+  /**
+   * Add a branch.
+   *
+   * @param commands CLI commands applied before the branch is run, none
+   *                 for an unchanged branch
+   */
+  public void addBranch(String... commands)
+  {
+    branches.add(commands);
+  }
+
+  /**
+   * @return Number of branches
+   */
+  public int size()
+  {
+    return branches.size();
+  }
+
+  /**
+   * Run all branches, blocking until they are complete.
+   *
+   * @param threads Maximum number of branches to run concurrently
+   * @return Number of branches which failed
+   */
+  public int run(int threads)
+  {
+    outdir.mkdirs();
+
+    ExecutorService pool = Executors.newFixedThreadPool(
+                             Math.max(1, Math.min(threads, branches.size())));
+    ArrayList<Future<?>> results = new ArrayList<>();
+
+    for (int i = 0; i < branches.size(); i++)
+    {
+      final int branch = i;
+      results.add(pool.submit(() -> { execute(branch); return null; }));
+    }
+
+    int failed = 0;
+
+    for (int i = 0; i < results.size(); i++)
+    {
+      try
+      {
+        results.get(i).get();
+      }
+      catch (Exception e)
+      {
+        failed++;
+        System.err.println("Branch " + i + " failed: " + e);
+      }
+    }
+    pool.shutdown();
+
+    return failed;
+  }
+
+  /**
+   * Execute a single branch.
+   *
+   * @param branch Index of branch
+   * @throws IOException on failure to write results
+   * @throws IllegalArgumentException if a command was not applied
+   */
+  private void execute(int branch) throws IOException
+  {
+    File dir = new File(outdir, String.format("branch-%02d", branch));
+    dir.mkdirs();
+
+    try (SimulationContext ctx = SimulationContext.fork(state);
+         BufferedWriter bw = new BufferedWriter(
+                               new FileWriter(new File(dir, "commands"))))
+    {
+      bw.write("step " + ctx.getStep() + "\n");
+
+      for (String c : branches.get(branch))
+      {
+        if (!ctx.command(c))
+          throw new IllegalArgumentException("Failed to apply: " + c);
+
+        bw.write(c + "\n");
+      }
+      bw.flush();
+
+      ctx.step(steps);
+      ctx.saveStatistics(new File(dir, "statistics.csv"));
+    }
+  }
+}
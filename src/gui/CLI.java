@@ -27,7 +27,10 @@ import charts.ChartController;
 import charts.StepChart;
 import core.*;
 import javafx.application.Platform;
+import statistics.Profiler;
+import statistics.SeriesStore;
 import statistics.Statistic;
+import statistics.StatisticExporter;
 
 import java.io.*;
 import java.lang.reflect.Field;
@@ -37,15 +40,18 @@ import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gui.Common.simeng;
 
 public class CLI implements Runnable
 {
   ChartController charts = null;
+  boolean headless = false;  // No javafx toolkit, commands run on caller
   InputStream input = null;
   BufferedReader br = null;
   boolean debug = false;
+  boolean failed = false;    // Last command failed, see fail()
   int DEFAULT_STEPS = 1;     // Default Step to run simulation for step command
 
   String[] cmds =
@@ -57,10 +63,29 @@ public class CLI implements Runnable
     "wait [time]              : wait a while before continuing reading commands",
     "reset                    : reset simulation",
     "set                      : set parameters in simulation",
+    "set randomstreams [t|f]  : per agent deterministic random streams",
+    "set scheduler [t|f]      : only evaluate sparse agents when due",
+    "set agentcost n          : sample 1 in n agent evaluations for agentcost, 0 off",
+    "set lazystatistics [t|f] : only compute lazy statistics while subscribed",
+    "set deposittotals [t|f]  : keep company and market deposit totals as entries are posted",
+    "set distributions n      : deposit, debt and income distribution statistics every n steps, 0 off",
     "load file                : load new config file",
+    "generate file            : generate economy from distributions in spec file",
+    "checkpoint file          : save complete simulation state to file",
+    "restore file             : restore simulation state saved by checkpoint",
     "preferences  filename    : load Threadneedle parameters from file",
     "config                   : show current parameters for simulation",
     "statistics               : show statistics registered with simulation",
+    "savestatistics file [day|month|year] : write history of all statistics as csv",
+    "subscribe regex ..       : compute lazy statistics matching regex",
+    "unsubscribe regex ..     : remove subscription to statistics matching regex",
+    "profile                  : show p50/p99/max time per step phase and reset",
+    "agentcost                : show sampled evaluation cost per agent class and reset",
+    "export file [regex ..] | off : stream statistics matching regex to csv[.gz] every step",
+    "record dir | off         : record every value of every statistic to dir",
+    "exportseries file [from [to]] : write statistics recorded between steps as csv",
+    "journal dir | off        : record every transaction posted to the banks' ledgers in dir",
+    "audit [n | off]          : check banks' books as posted, full audit every n steps; report",
     "",
     "printmoney agent-id x    : increase agent's deposit by x",
     "addagent type bankname [options] : add an agent with [options] as properties key=value map",
@@ -76,6 +101,9 @@ public class CLI implements Runnable
     "savechartdata [dir]        : write chart's series data out to a file for that chart as png",
     "",
     "savechartcsvdata [dir] : write chart's series data out to a file for that chart as csv",
+    "sweep config steps dir [threads=n] [seeds=s1,s2..] [agent:field=v1,v2..]* : run parameter sweep",
+    "fork steps dir [threads=n] cmds | cmds .. : run what-if branches from current step, cmds separated by ;",
+    "ensemble config steps file [threads=n] [runs=k | seeds=s1,s2..] [chart=statistic] : run Monte Carlo ensemble",
     "printorders agent-id    : print the orders listed on stockmarket agent-id or put up by agent-id",
     "quit               : exit simulation",
   };
@@ -88,8 +116,12 @@ public class CLI implements Runnable
    * easier to pass it through, than rewrite SimulationEngine for charts 
    * being null.
    *
+   * Passing a null chart controller runs the CLI headless: commands are
+   * executed directly on the calling thread and chart commands are
+   * unavailable.
+   *
    * @param csv    csv for supplied config file | null
-   * @param charts Chart controller for SimulationEngines
+   * @param charts Chart controller for SimulationEngines | null (headless)
    * @param batchfile optional - batchfile containing commands to execute
    *
    * Todo: refactor to allow config files to be loaded
@@ -97,7 +129,8 @@ public class CLI implements Runnable
 
   public CLI(CSVReader csv, ChartController charts, String batchfile)
   {
-    this.charts = charts;
+    this.charts   = charts;
+    this.headless = (charts == null);
 
     // Are we running in batch file mode?
 
@@ -183,9 +216,23 @@ public class CLI implements Runnable
     }
   }
 
-  private boolean processCommand(String line)
+  // Commands which run their own simulations and don't touch the gui's,
+  // these are run on the CLI thread so the gui remains live.
+
+  private static final List<String> independent
+    = Arrays.asList("sweep", "ensemble", "fork");
+
+  /**
+   * Execute a command line.
+   *
+   * @param line command line
+   * @return false if the command is unknown or reported a failure
+   */
+  boolean processCommand(String line)
   {
     String cmd;
+
+    failed = false;
     try
     {
       cmd = line.split("\\s+")[0];
@@ -199,7 +246,7 @@ public class CLI implements Runnable
     {
       Method m = this.getClass().getMethod(cmd, String[].class);
       
-      runAndWait(() -> 
+      execute(independent.contains(cmd), () -> 
       {
          try
          {
@@ -225,6 +272,7 @@ public class CLI implements Runnable
             System.err.println("Invocation exception " + e.getTargetException());
             System.err.println("\t " + cmd);
             e.printStackTrace();
+            failed = true;
          }
       });
     }
@@ -235,13 +283,50 @@ public class CLI implements Runnable
       {
         System.out.println("No such command: " + cmd);
         printCommands();
+        failed = true;
       }
     }
     catch (Exception e)
     {
-      System.err.println(e);
+      fail(e.toString());
     }
-    return true;
+    return !failed;
+  }
+
+  /**
+   * Report a failure of the current command, which processCommand()
+   * returns, e.g. so that a sweep doesn't run with a setting ignored.
+   *
+   * @param message error message
+   */
+  private void fail(String message)
+  {
+    System.err.println(message);
+    failed = true;
+  }
+
+  /**
+   * Parse an optional [t|f] operand, which defaults to t when missing.
+   * Also accepts true and false.
+   *
+   * @param fields fields supplied to command line
+   * @param i      index of operand
+   * @return operand, null if it is not t or f (and the command failed)
+   */
+  private Boolean flag(String[] fields, int i)
+  {
+    if (fields.length <= i)
+      return Boolean.TRUE;
+
+    String v = fields[i].toLowerCase();
+
+    if (v.equals("t") || v.equals("true"))
+      return Boolean.TRUE;
+    else if (v.equals("f") || v.equals("false"))
+      return Boolean.FALSE;
+
+    fail("Invalid operand should be t or f: " + fields[i]);
+    return null;
   }
 
   /**
@@ -305,6 +390,9 @@ public class CLI implements Runnable
    */
   public void savechartdata(String[] line)
   {
+    if (!chartsAvailable(line[0]))
+      return;
+
     String dir = "../";
 
     if (line.length == 2)            // Append directory name if supplied
@@ -315,6 +403,9 @@ public class CLI implements Runnable
 
   public void savechartcsvdata(String[] line)
   {
+    if (!chartsAvailable(line[0]))
+      return;
+
     String dir = "../";
 
     if (line.length == 2)
@@ -349,6 +440,9 @@ public class CLI implements Runnable
 
    public void preferences(String[] line)
    {
+     if (!chartsAvailable(line[0]))
+       return;
+
      Preferences pref = new Preferences();
      pref.loadPreferences(line[1]);
      charts.refresh();
@@ -425,7 +519,8 @@ public class CLI implements Runnable
       e.printStackTrace();
     }
 
-    charts.saveAllCharts(dir, 320, 240);
+    if (!headless)
+      charts.saveAllCharts(dir, 320, 240);
   }
 
   /**
@@ -439,7 +534,76 @@ public class CLI implements Runnable
   public void load(String[] cmdline)
   {
     if (!simeng.loadSimulation(new File(cmdline[1])))
-       System.out.println("Failed to load simulation from file: " + cmdline[1]);
+       fail("Failed to load simulation from file: " + cmdline[1]);
+  }
+
+  /**
+   * Generate a synthetic economy from a specification of distributions
+   * (see core.Generator).
+   *
+   * @param cmdline fields supplied to command line
+   */
+  public void generate(String[] cmdline)
+  {
+    if (cmdline.length < 2)
+    {
+      System.err.println(getHelp("generate"));
+      return;
+    }
+
+    if (!new Generator(simeng).generate(new File(cmdline[1])))
+       System.out.println("Failed to generate simulation from: " + cmdline[1]);
+  }
+
+  /**
+   * Save the complete state of the simulation at the current step.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void checkpoint(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.out.println("checkpoint file");
+      return;
+    }
+
+    try
+    {
+      Checkpoint.save(simeng, new File(fields[1]));
+      System.out.println("Checkpoint at step " + Base.step + " saved to "
+                         + fields[1]);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to write checkpoint " + fields[1] + ": " + e);
+    }
+  }
+
+  /**
+   * Restore simulation from a checkpoint file. Nb. charts are not
+   * connected to the restored statistics.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void restore(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.out.println("restore file");
+      return;
+    }
+
+    try
+    {
+      Checkpoint.restore(simeng, new File(fields[1]));
+      System.out.println("Restored step " + Base.step + " from " + fields[1]);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to restore checkpoint " + fields[1] + ": "
+                         + e);
+    }
   }
 
   /**
@@ -455,6 +619,18 @@ public class CLI implements Runnable
     Long amount = Long.parseLong(fields[2]);
 
     agent.getBank().printMoney(agent.getAccount(), amount, "Print Money - CLI");
+    wake(agent);
+  }
+
+  /**
+   * Wake agent if it is asleep, after a change made from the CLI.
+   *
+   * @param agent Agent changed
+   */
+  private void wake(Agent agent)
+  {
+    if (simeng instanceof PhaseEngine)
+      ((PhaseEngine) simeng).wake(agent);
   }
 
   /**
@@ -467,6 +643,227 @@ public class CLI implements Runnable
     simeng.printCurrentConfig();
   }
 
+  /**
+   * profile - print latency of each phase of the simulation step since the
+   * last profile command, and reset.
+   *
+   * @param fields fields supplied to command line (unused)
+   */
+  public void profile(String[] fields)
+  {
+    Profiler.report(System.out);
+  }
+
+  /**
+   * agentcost - print estimated evaluation time and allocation per step for
+   * each agent class since the last agentcost command, and reset. Sampling
+   * is enabled with set agentcost n.
+   *
+   * @param fields fields supplied to command line (unused)
+   */
+  public void agentcost(String[] fields)
+  {
+    if (!(simeng instanceof PhaseEngine)
+        || ((PhaseEngine) simeng).getAgentCost() == null)
+    {
+      System.err.println("Agent cost sampling not enabled: set agentcost n");
+      return;
+    }
+
+    ((PhaseEngine) simeng).getAgentCost().report(System.out);
+  }
+
+  /**
+   * export - stream the statistics whose names match any of the regular
+   * expressions given (default all) to a csv file, one row per step, until
+   * export off or the simulation is reset. The file is gzip compressed if
+   * its name ends in .gz.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void export(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp("export"));
+      return;
+    }
+
+    if (fields[1].equalsIgnoreCase("off"))
+    {
+      Statistic.setExporter(null);
+      return;
+    }
+
+    try
+    {
+      StatisticExporter e = new StatisticExporter(new File(fields[1]),
+                              Arrays.copyOfRange(fields, 2, fields.length));
+
+      Statistic.setExporter(e);
+      System.out.println("Exporting " + e.size() + " statistics to "
+                         + fields[1]);
+    }
+    catch (IOException | PatternSyntaxException e)
+    {
+      System.err.println("Failed to export to " + fields[1] + ": " + e);
+    }
+  }
+
+  /**
+   * record - record every value of every statistic from the current step
+   * in a series store (see statistics.SeriesStore), until record off or
+   * the simulation is reset.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void record(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp("record"));
+      return;
+    }
+
+    if (fields[1].equalsIgnoreCase("off"))
+    {
+      Statistic.setStore(null);
+      return;
+    }
+
+    try
+    {
+      Statistic.setStore(new SeriesStore(new File(fields[1])));
+      System.out.println("Recording statistics from step " + Base.step
+                         + " to " + fields[1]);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to create series store " + fields[1] + ": "
+                         + e);
+    }
+  }
+
+  /**
+   * journal - record every transaction posted to the banks' ledgers from
+   * the current step in a journal (see core.Journal), until journal off
+   * or the simulation is reset. Transactions are not held in memory while
+   * journalled.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void journal(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp("journal"));
+      return;
+    }
+
+    if (fields[1].equalsIgnoreCase("off"))
+    {
+      Journal.setJournal(null);
+      Journal.attach(simeng.govt);
+      return;
+    }
+
+    try
+    {
+      Journal.setJournal(new Journal(new File(fields[1])));
+      Journal.attach(simeng.govt);
+      System.out.println("Journalling transactions from step " + Base.step
+                         + " to " + fields[1]);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to create journal " + fields[1] + ": " + e);
+    }
+  }
+
+  /**
+   * audit - check the banks' books as transactions are posted (see
+   * core.Auditor), with a full audit in the background every n steps (0
+   * for none), until audit off or the simulation is reset. With no
+   * arguments, report the checks made so far.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void audit(String[] fields)
+  {
+    Auditor auditor = Auditor.getAuditor();
+
+    if (fields.length < 2)
+    {
+      if (auditor == null)
+        System.err.println(getHelp("audit"));
+      else
+        System.out.print(auditor.report());
+      return;
+    }
+
+    if (fields[1].equalsIgnoreCase("off"))
+    {
+      if (auditor != null)
+        System.out.print(auditor.report());
+
+      Auditor.setAuditor(null);
+      Auditor.attach(simeng.govt);
+      return;
+    }
+
+    try
+    {
+      Auditor.setAuditor(new Auditor(Integer.parseInt(fields[1])));
+      Auditor.attach(simeng.govt);
+      System.out.println("Auditing books from step " + Base.step);
+    }
+    catch (NumberFormatException e)
+    {
+      System.err.println(getHelp("audit"));
+    }
+  }
+
+  /**
+   * exportseries - write the values recorded by record between two steps
+   * (default all) to a csv file, in the same format as savechartcsvdata.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void exportseries(String[] fields)
+  {
+    SeriesStore store = Statistic.getStore();
+
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp("exportseries"));
+      return;
+    }
+
+    if (store == null)
+    {
+      System.err.println("Statistics are not being recorded: record dir");
+      return;
+    }
+
+    try
+    {
+      int from = fields.length > 2 ? Integer.parseInt(fields[2]) : 0;
+      int to   = fields.length > 3 ? Integer.parseInt(fields[3])
+                                   : Integer.MAX_VALUE;
+
+      store.flush();
+      store.saveToCsv(fields[1], from, to);
+    }
+    catch (NumberFormatException e)
+    {
+      System.err.println("Invalid step: " + e.getMessage());
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to write " + fields[1] + ": " + e);
+    }
+  }
+
   /**
    * statistics - print out information on simulation statistics.
    * 
@@ -476,10 +873,88 @@ public class CLI implements Runnable
    {
      for(Statistic s: Statistic.names.values())
      {
-        System.out.println(s.name + " " + s.history.size());
+        System.out.println(s.name + " " + s.size());
      }
    }
 
+  /**
+   * savestatistics - write the history of all statistics to a csv file,
+   * every value (day, the default), or the mean of each month or year.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void savestatistics(String[] fields)
+  {
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp("savestatistics"));
+      return;
+    }
+
+    try
+    {
+      Base.Time resolution = fields.length > 2
+                             ? Base.Time.valueOf(fields[2].toUpperCase())
+                             : Base.Time.DAY;
+
+      Statistic.saveToCsv(fields[1], resolution);
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.err.println(getHelp("savestatistics"));
+    }
+    catch (IOException e)
+    {
+      System.err.println("Failed to write " + fields[1] + ": " + e);
+    }
+  }
+
+  /**
+   * subscribe - subscribe to the statistics matching each regular
+   * expression, so that lazy statistics are computed (see set
+   * lazystatistics).
+   *
+   * @param fields fields supplied to command line
+   */
+  public void subscribe(String[] fields)
+  {
+    subscribe(fields, true);
+  }
+
+  /**
+   * unsubscribe - remove a subscription made by subscribe.
+   *
+   * @param fields fields supplied to command line
+   */
+  public void unsubscribe(String[] fields)
+  {
+    subscribe(fields, false);
+  }
+
+  private void subscribe(String[] fields, boolean subscribe)
+  {
+    if (fields.length < 2)
+    {
+      System.err.println(getHelp(fields[0]));
+      return;
+    }
+
+    try
+    {
+      int n = 0;
+
+      for (int i = 1; i < fields.length; i++)
+        n += Statistic.subscribe(fields[i], subscribe);
+
+      System.out.println((subscribe ? "Subscribed to " : "Unsubscribed from ")
+                         + n + " statistics");
+    }
+    catch (PatternSyntaxException e)
+    {
+      System.err.println("Invalid expression: " + e.getMessage());
+    }
+  }
+
   /**
    * reset  - reset simulation to config values.
    * 
@@ -507,13 +982,114 @@ public class CLI implements Runnable
           Base.setRandom(seed);
           System.out.println("SIMULATION SEED SET TO: " + seed);
         } catch (NumberFormatException e) {
-          System.err.println("Invalid operand should be int: " + fields[2]);
+          fail("Invalid operand should be int: " + fields[2]);
           System.err.println(fields[2]);
         }
         return;
       }
+      else if (fields[1].compareToIgnoreCase("randomstreams") == 0)
+      {
+        Boolean on = flag(fields, 2);
+
+        if (on == null)
+          return;
+
+        Base.setStreams(on);
+        System.out.println("PER AGENT RANDOM STREAMS " + (on ? "ON" : "OFF"));
+        return;
+      }
+      else if (fields[1].compareToIgnoreCase("scheduler") == 0)
+      {
+        if (!(simeng instanceof PhaseEngine))
+        {
+          fail("Simulation engine does not support scheduler");
+          return;
+        }
+
+        Boolean on = flag(fields, 2);
+
+        if (on == null)
+          return;
+
+        ((PhaseEngine) simeng).setScheduling(on);
+        System.out.println("AGENT SCHEDULER " + (on ? "ON" : "OFF"));
+        return;
+      }
+      else if (fields[1].compareToIgnoreCase("agentcost") == 0)
+      {
+        if (!(simeng instanceof PhaseEngine))
+        {
+          fail("Simulation engine does not support agentcost");
+          return;
+        }
+
+        try
+        {
+          int n = fields.length >= 3 ? Integer.parseInt(fields[2]) : 1;
+
+          ((PhaseEngine) simeng).setAgentCost(n);
+          System.out.println("AGENT COST SAMPLING " + (n > 0 ? "1 IN " + n : "OFF"));
+        }
+        catch (NumberFormatException e)
+        {
+          fail("Invalid operand should be int: " + fields[2]);
+        }
+        return;
+      }
+      else if (fields[1].compareToIgnoreCase("lazystatistics") == 0)
+      {
+        Boolean on = flag(fields, 2);
+
+        if (on == null)
+          return;
+
+        Statistic.lazyEvaluation = on;
+        System.out.println("LAZY STATISTICS " + (on ? "ON" : "OFF"));
+        return;
+      }
+      else if (fields[1].compareToIgnoreCase("deposittotals") == 0)
+      {
+        if (!(simeng instanceof PhaseEngine))
+        {
+          fail("Simulation engine does not support deposittotals");
+          return;
+        }
+
+        Boolean on = flag(fields, 2);
+
+        if (on == null)
+          return;
+
+        ((PhaseEngine) simeng).setDepositTotals(on);
+        System.out.println("DEPOSIT TOTALS " + (on ? "ON" : "OFF"));
+        return;
+      }
+      else if (fields[1].compareToIgnoreCase("distributions") == 0)
+      {
+        if (!(simeng instanceof PhaseEngine))
+        {
+          fail("Simulation engine does not support distributions");
+          return;
+        }
+
+        try
+        {
+          int n = fields.length >= 3 ? Integer.parseInt(fields[2]) : 1;
+
+          ((PhaseEngine) simeng).setDistributions(n);
+          System.out.println("DISTRIBUTION STATISTICS " + (n > 0 ? "EVERY " + n + " STEPS" : "OFF"));
+        }
+        catch (NumberFormatException e)
+        {
+          fail("Invalid operand should be int: " + fields[2]);
+        }
+        return;
+      }
       else if (fields[1].compareToIgnoreCase("maxdatapoints") == 0)
       {
+        if (!chartsAvailable(fields[0]))
+          return;
+
         try
         {
           long max = fields.length >= 3 ? Long.parseLong(fields[2]) : Long.MAX_VALUE;
@@ -525,13 +1101,13 @@ public class CLI implements Runnable
         }
         catch (NumberFormatException e)
         {
-          System.err.println("Invalid operand should be long: " + fields[2]);
+          fail("Invalid operand should be long: " + fields[2]);
           System.err.println(fields[2]);
         }
         return;
       }
 
-      System.err.println("Unknown agent in cmdline: " + fields[1]);
+      fail("Unknown agent in cmdline: " + fields[1]);
       System.err.println(fields[1]);
       return;
     }
@@ -545,22 +1121,342 @@ public class CLI implements Runnable
 	  if(field.getType() == Integer.TYPE)
 	  {
         field.setInt(agent, Integer.parseInt(fields[3]));
+	  }
+	  else if (field.getType() == Long.TYPE)
+	  {
+        field.setLong(agent, Long.parseLong(fields[3]));
+	  }
+	  else if (field.getType() == Double.TYPE)
+	  {
+        field.setDouble(agent, Double.parseDouble(fields[3]));
 	  }
 	  else if (field.getType() == Boolean.TYPE)
 	  {
         field.setBoolean(agent, Boolean.parseBoolean(fields[3]));
 	  }
 	  else
-		  System.out.println("Unhandled type for field in set");
+		  fail("Unhandled type for field in set");
+
+      wake(agent);
     } 
 	catch (Exception e) 
 	{
-     System.err.println("Failed to find field: " + fields[2]);
+     fail("Failed to find field: " + fields[2]);
      System.err.println(e);
     }
 
   }
 
+  /**
+   * Fork the current simulation into branches which run concurrently from
+   * the current step, each in its own simulation context. Branches are
+   * separated by |, and the commands within a branch by ;. A branch of
+   * "none" is run unchanged. The current simulation is unaffected.
+   *
+   * e.g. fork 240 results/shock threads=4 none | setbaserate 5 | setbaserate 10
+   *
+   * @param fields fields supplied to command line
+   */
+  public void fork(String[] fields)
+  {
+    if (fields.length < 4)
+    {
+      fail(getHelp("fork"));
+      return;
+    }
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    int first   = 3;
+    int steps;
+
+    try
+    {
+      steps = Integer.parseInt(fields[1]);
+
+      if (fields[3].toLowerCase().startsWith("threads="))
+      {
+        threads = Integer.parseInt(fields[3].substring(8));
+        first++;
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      fail("Invalid fork parameter: " + e.getMessage());
+      System.err.println(getHelp("fork"));
+      return;
+    }
+
+    // Snapshot the simulation between steps
+
+    byte[][] state = new byte[1][];
+    String[] error = new String[1];
+
+    execute(false, () -> {
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Checkpoint.save(simeng, bytes);
+        state[0] = bytes.toByteArray();
+      }
+      catch (IOException e)
+      {
+        error[0] = e.toString();
+      }
+    });
+
+    if (state[0] == null)
+    {
+      fail("Failed to copy simulation: " + error[0]);
+      return;
+    }
+
+    Branches branches = new Branches(state[0], steps, new File(fields[2]));
+    String line = String.join(" ", Arrays.copyOfRange(fields, first,
+                                                      fields.length));
+
+    for (String branch : line.split("\\|"))
+    {
+      ArrayList<String> commands = new ArrayList<>();
+
+      for (String c : branch.split(";"))
+      {
+        if (!c.trim().isEmpty() && !c.trim().equalsIgnoreCase("none"))
+          commands.add(c.trim());
+      }
+      branches.addBranch(commands.toArray(new String[0]));
+    }
+
+    System.out.println("Fork: " + branches.size() + " branches from step "
+                       + Base.step + " on " + threads + " threads");
+
+    int failed = branches.run(threads);
+
+    System.out.println("Fork complete: " + (branches.size() - failed) + "/"
+                       + branches.size() + " branches, written to "
+                       + fields[2]);
+
+    if (failed > 0)
+      fail("Fork: " + failed + " branches failed");
+  }
+
+  /**
+   * Run a parameter sweep over a configuration file, with each combination
+   * of seed and parameter values run concurrently in its own simulation
+   * context. The current simulation is unaffected.
+   *
+   * e.g. sweep examples/2productproblem.json 3600 results/sweep threads=8
+   *            seeds=1,2,3 Farm-5:labourInput=1,2 Farm-7:labourInput=1,2
+   *
+   * @param fields fields supplied to command line
+   */
+  public void sweep(String[] fields)
+  {
+    if (fields.length < 4)
+    {
+      fail(getHelp("sweep"));
+      return;
+    }
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    Sweep sweep;
+
+    try
+    {
+      sweep = new Sweep(new File(fields[1]), Integer.parseInt(fields[2]),
+                        new File(fields[3]));
+
+      for (int i = 4; i < fields.length; i++)
+      {
+        String[] kv = fields[i].split("=", 2);
+
+        if (kv.length != 2)
+          throw new IllegalArgumentException("Expected key=value: " + fields[i]);
+
+        if (kv[0].equalsIgnoreCase("threads"))
+          threads = Integer.parseInt(kv[1]);
+        else if (kv[0].equalsIgnoreCase("seeds"))
+        {
+          for (String seed : kv[1].split(","))
+            sweep.addSeed(Integer.parseInt(seed));
+        }
+        else
+        {
+          int sep = kv[0].lastIndexOf(':');
+
+          if (sep <= 0)
+            throw new IllegalArgumentException("Expected agent:field: " + kv[0]);
+
+          sweep.addParameter(kv[0].substring(0, sep), kv[0].substring(sep + 1),
+                             kv[1].split(","));
+        }
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      fail("Invalid sweep parameter: " + e.getMessage());
+      System.err.println(getHelp("sweep"));
+      return;
+    }
+
+    System.out.println("Sweep: " + sweep.size() + " runs on " + threads
+                       + " threads");
+
+    int failed = sweep.run(threads);
+
+    System.out.println("Sweep complete: " + (sweep.size() - failed) + "/"
+                       + sweep.size() + " runs written to " + fields[3]);
+
+    if (failed > 0)
+      fail("Sweep: " + failed + " runs failed");
+  }
+
+  /**
+   * Run a Monte Carlo ensemble: the configuration is run concurrently with
+   * different seeds, and every statistic is reduced per step to its mean,
+   * min, max and quantiles across the runs. Seeds default to k consecutive
+   * seeds starting at the current seed. If a statistic is given for chart,
+   * its band is drawn live on the Ensemble chart.
+   *
+   * e.g. ensemble defaultSimulation.json 3600 results/ensemble.csv.gz
+   *               runs=50 chart=totalWorkerDeposits
+   *
+   * @param fields fields supplied to command line
+   */
+  public void ensemble(String[] fields)
+  {
+    if (fields.length < 4)
+    {
+      fail(getHelp("ensemble"));
+      return;
+    }
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    int[] seeds = null;
+    String chart = null;
+    Ensemble ensemble;
+
+    try
+    {
+      for (int i = 4; i < fields.length; i++)
+      {
+        String[] kv = fields[i].split("=", 2);
+
+        if (kv.length != 2)
+          throw new IllegalArgumentException("Expected key=value: " + fields[i]);
+
+        if (kv[0].equalsIgnoreCase("threads"))
+          threads = Integer.parseInt(kv[1]);
+        else if (kv[0].equalsIgnoreCase("runs"))
+        {
+          seeds = new int[Integer.parseInt(kv[1])];
+
+          for (int j = 0; j < seeds.length; j++)
+            seeds[j] = Base.seed + j;
+        }
+        else if (kv[0].equalsIgnoreCase("seeds"))
+        {
+          String[] s = kv[1].split(",");
+          seeds = new int[s.length];
+
+          for (int j = 0; j < s.length; j++)
+            seeds[j] = Integer.parseInt(s[j]);
+        }
+        else if (kv[0].equalsIgnoreCase("chart"))
+          chart = kv[1];
+        else
+          throw new IllegalArgumentException("Unknown option: " + kv[0]);
+      }
+
+      if (seeds == null || seeds.length == 0)
+        throw new IllegalArgumentException("runs or seeds must be supplied");
+
+      ensemble = new Ensemble(new File(fields[1]), Integer.parseInt(fields[2]),
+                              seeds);
+    }
+    catch (IllegalArgumentException e)
+    {
+      fail("Invalid ensemble parameter: " + e.getMessage());
+      System.err.println(getHelp("ensemble"));
+      return;
+    }
+
+    if (chart != null && chartsAvailable(fields[0]))
+      chartEnsemble(ensemble, chart);
+
+    System.out.println("Ensemble: " + seeds.length + " runs on " + threads
+                       + " threads");
+    try
+    {
+      int failed = ensemble.run(new File(fields[3]), threads);
+
+      System.out.println("Ensemble complete: " + (seeds.length - failed)
+                         + "/" + seeds.length + " runs, written to "
+                         + fields[3]);
+
+      if (failed > 0)
+        fail("Ensemble: " + failed + " runs failed");
+    }
+    catch (IOException e)
+    {
+      fail("Failed to write file: " + fields[3]);
+      System.err.println(e);
+    }
+  }
+
+  /**
+   * Draw the band of a single statistic on the Ensemble chart as the
+   * ensemble runs. The band's series are statistics of their own, outside
+   * the directory, so that they are neither part of the gui's simulation
+   * nor wait for its rollover to reach the chart.
+   *
+   * @param ensemble  Ensemble being run
+   * @param name      Statistic to chart
+   */
+  private void chartEnsemble(Ensemble ensemble, String name)
+  {
+    String[]    series = {"p05", "mean", "p95"};
+    int[]       column = new int[series.length];
+    Statistic[] band   = new Statistic[series.length];
+
+    for (int i = 0; i < series.length; i++)
+      column[i] = Arrays.asList(Ensemble.COLUMNS).indexOf(series[i]);
+
+    runAndWait(() -> {
+      StepChart chart = ChartController.charts.get("ensemble");
+
+      for (int i = 0; i < series.length; i++)
+      {
+        String key = name + " " + series[i];
+
+        band[i] = chart.getSeries(key);
+
+        if (band[i] == null)
+        {
+          band[i] = Statistic.unregistered(key, Statistic.Type.SINGLE);
+          ChartController.addSeries(chart, key, band[i]);
+        }
+      }
+      ChartController.setEnabled("ensemble", true);
+      charts.refresh();
+    });
+
+    ensemble.addListener((step, stat, values) -> {
+      if (!stat.equals(name))
+        return;
+
+      Platform.runLater(() -> {
+        for (int i = 0; i < series.length; i++)
+        {
+          band[i].add((long) values[column[i]]);
+          band[i].rollover();
+        }
+        ChartController.charts.get("ensemble").inc_x();
+      });
+    });
+  }
+
+
   public void setbaserate(String[] fields)
   {
     core.CentralBank cb = simeng.govt.centralbank;
@@ -903,7 +1799,9 @@ public class CLI implements Runnable
     for (int i = 0; i < nSteps; i++)
     {
       simeng.evaluate();
-      charts.inc_x();
+
+      if (!headless)
+        charts.inc_x();
 /*
     for (int i = 0; i < nSteps; i++) {
       Platform.runLater(() ->
@@ -932,6 +1830,12 @@ public class CLI implements Runnable
     int nSteps = fields.length > 1 ? Integer.parseInt(fields[1]) : DEFAULT_STEPS;
     int stepSz = 10;
 
+    if (headless)
+    {
+      step(new String[] {"step", Integer.toString(nSteps)});
+      return;
+    }
+
     while (nSteps > stepSz) {
       runAndWait(() ->
       {
@@ -987,6 +1891,10 @@ public class CLI implements Runnable
    */
   public void exit(String[] cmdline)
   {
+    Statistic.setStore(null);        // Write series store's index
+    Statistic.setExporter(null);     // and remaining exported rows
+    Journal.setJournal(null);        // and journal's index
+    Auditor.setAuditor(null);        // Finish audits in progress
     System.exit(0);
   }
 
@@ -1009,6 +1917,35 @@ public class CLI implements Runnable
     return "Error - Command not found: " + cmd;
   }
 
+  /**
+   * Run command on the CLI's own thread when headless or independent of
+   * the gui's simulation, otherwise on the JavaFX application thread.
+   *
+   * @param independent command does not use the gui's simulation
+   * @param action the {@link Runnable} to run
+   */
+  private void execute(boolean independent, Runnable action)
+  {
+    if (headless || independent)
+      action.run();
+    else
+      runAndWait(action);
+  }
+
+  /**
+   * Check that charts are available for commands which require them.
+   *
+   * @param cmd  Command being executed
+   * @return t/f charts available
+   */
+  private boolean chartsAvailable(String cmd)
+  {
+    if (headless)
+      System.err.println(cmd + ": charts not available in headless mode");
+
+    return !headless;
+  }
+
   /**
    * Runs the specified {@link Runnable} on the JavaFX application thread 
    * and waits for completion. This is used to resolve the issues created
@@ -0,0 +1,411 @@
+/* Program: Threadneedle
+ *
+ * Ensemble : Monte Carlo ensemble of a single configuration.
+ *
+ * The configuration is run once per seed, each run in its own
+ * SimulationContext. The runs are stepped in lockstep: each step of every
+ * run is handed to a pool of threads, and once all the runs have made it
+ * the latest value of each of their statistics is reduced to a band
+ * (mean, min, max and quantiles) per statistic, written out, and
+ * discarded before the next step starts. Only one step's values are
+ * held in memory, whatever the number of runs or threads, but every run's
+ * simulation is held for the whole ensemble. Statistics in the runs keep
+ * HISTORY values, rather than every value as in other batch contexts, so
+ * that a run's memory does not grow with the number of steps.
+ *
+ * Output is a single csv file (gzip compressed if the name ends in .gz):
+ *
+ *   step,statistic,n,mean,min,p05,p25,p50,p75,p95,max
+ *
+ * Author : Copyright (c) Jacky Mallett
+ * Date   : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package gui;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+public class Ensemble
+{
+  public static final String[] COLUMNS =
+    {"n", "mean", "min", "p05", "p25", "p50", "p75", "p95", "max"};
+
+  private static final double[] QUANTILES = {0.05, 0.25, 0.50, 0.75, 0.95};
+
+  // Values kept by each statistic in a run, as in the gui. Agents only
+  // look a few steps back.
+
+  private static final int HISTORY = 120;
+
+  /**
+   * Receives each band as it is completed. Called from the thread running
+   * the ensemble.
+   */
+  public interface BandListener
+  {
+    /**
+     * @param step  Simulation step
+     * @param name  Statistic name
+     * @param band  Values in the order of COLUMNS
+     */
+    void band(int step, String name, double[] band);
+  }
+
+  private final File config;
+  private final int  steps;
+  private final int[] seeds;
+
+  private final ArrayList<BandListener> listeners = new ArrayList<>();
+
+  private Writer out = null;
+
+  // Every statistic seen in any run, in output order
+
+  private final TreeMap<String, Column> columns = new TreeMap<>();
+
+  // Names of each run's statistics, fetched again only when the number of
+  // statistics changes, and the column each is reduced into.
+
+  private String[][] names;
+  private int[]      counts;
+  private Column[][] targets;
+
+  /**
+   * Values of one statistic across the runs in a step.
+   */
+  private static class Column
+  {
+    final long[] values;
+    int          n;
+
+    Column(int runs)
+    {
+      values = new long[runs];
+    }
+  }
+
+  /**
+   * Values of one step received from each run, null for runs which have
+   * failed.
+   */
+  private static class Step
+  {
+    final long[][]  values;
+    final boolean[] renamed;                  // Run's names were fetched
+
+    Step(int runs)
+    {
+      values  = new long[runs][];
+      renamed = new boolean[runs];
+    }
+  }
+
+  /**
+   * Action on a single run.
+   */
+  private interface RunAction
+  {
+    void run(int run) throws Exception;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param config Configuration to run
+   * @param steps  Number of steps for each run
+   * @param seeds  One run is made for each seed
+   */
+  public Ensemble(File config, int steps, int[] seeds)
+  {
+    this.config = config;
+    this.steps  = steps;
+    this.seeds  = seeds;
+  }
+
+  public void addListener(BandListener listener)
+  {
+    listeners.add(listener);
+  }
+
+  /**
+   * Run the ensemble, writing bands to file as they complete. Blocks until
+   * all runs are finished.
+   *
+   * @param file    File to write bands to, may be null
+   * @param threads Maximum number of runs stepped concurrently
+   * @return Number of runs which failed
+   * @throws IOException on failure to write output
+   */
+  public int run(File file, int threads) throws IOException
+  {
+    if (file != null)
+    {
+      OutputStream os = new FileOutputStream(file);
+
+      if (file.getName().endsWith(".gz"))
+        os = new GZIPOutputStream(os, 1 << 16);
+
+      out = new BufferedWriter(new OutputStreamWriter(os), 1 << 16);
+      out.write("step,statistic," + String.join(",", COLUMNS) + "\n");
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(
+                             Math.max(1, Math.min(threads, seeds.length)));
+    SimulationContext[] contexts = new SimulationContext[seeds.length];
+    boolean[]           failed   = new boolean[seeds.length];
+
+    names   = new String[seeds.length][];
+    counts  = new int[seeds.length];
+    targets = new Column[seeds.length][];
+    columns.clear();
+
+    try
+    {
+      forEach(pool, failed, run -> {
+        contexts[run] = new SimulationContext();
+        contexts[run].setHistoryLength(HISTORY);
+
+        if (!contexts[run].load(config))
+          throw new IOException("Failed to load " + config);
+
+        if (!contexts[run].command("set seed " + seeds[run]))
+          throw new IllegalArgumentException("set seed failed");
+      });
+
+      for (int i = 0; i < steps; i++)
+      {
+        Step  s  = new Step(seeds.length);
+        int[] at = new int[seeds.length];
+
+        forEach(pool, failed, run -> {
+          SimulationContext ctx = contexts[run];
+
+          ctx.step(1);
+
+          int count = ctx.statisticCount();
+
+          if (names[run] == null || count != counts[run])
+          {
+            names[run]     = ctx.statisticNames();
+            counts[run]    = count;
+            s.renamed[run] = true;
+          }
+
+          s.values[run] = ctx.latest(names[run]);
+          at[run]       = ctx.getStep() - 1;
+        });
+
+        int step = -1;
+
+        for (int run = 0; run < seeds.length; run++)
+        {
+          if (failed[run])
+          {
+            s.values[run] = null;             // Nb. may have part stepped
+            close(contexts[run]);
+            contexts[run] = null;
+          }
+          else
+            step = at[run];
+        }
+
+        if (step < 0)
+          break;                              // Every run has failed
+
+        reduce(step, s);
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+
+      for (SimulationContext ctx : contexts)
+        close(ctx);
+
+      if (out != null)
+      {
+        Writer w = out;
+
+        out = null;
+        w.close();
+      }
+    }
+
+    int n = 0;
+
+    for (boolean f : failed)
+      if (f)
+        n++;
+
+    return n;
+  }
+
+  /**
+   * Apply action to every run which has not failed, on the pool, and wait
+   * for all of them. Runs whose action throws are marked as failed.
+   */
+  private void forEach(ExecutorService pool, boolean[] failed,
+                       RunAction action)
+  {
+    ArrayList<Future<?>> results = new ArrayList<>(seeds.length);
+
+    for (int i = 0; i < seeds.length; i++)
+    {
+      final int run = i;
+
+      results.add(failed[run] ? null : pool.submit(() -> {
+        action.run(run);
+        return null;
+      }));
+    }
+
+    for (int run = 0; run < seeds.length; run++)
+    {
+      if (results.get(run) == null)
+        continue;
+
+      try
+      {
+        results.get(run).get();
+      }
+      catch (Exception e)
+      {
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+
+        System.err.println("Ensemble run " + run + " (seed " + seeds[run]
+                           + ") failed: " + cause);
+        failed[run] = true;
+      }
+    }
+  }
+
+  private static void close(SimulationContext ctx)
+  {
+    if (ctx == null)
+      return;
+
+    try
+    {
+      ctx.close();
+    }
+    catch (IOException e)
+    {
+      // ignore
+    }
+  }
+
+  /**
+   * Reduce one step's values to bands and pass them on.
+   *
+   * @throws IOException on failure to write output
+   */
+  private void reduce(int step, Step s) throws IOException
+  {
+    for (Column c : columns.values())
+      c.n = 0;
+
+    for (int r = 0; r < s.values.length; r++)
+    {
+      if (s.values[r] == null)
+        continue;
+
+      if (s.renamed[r])
+      {
+        int runs = s.values.length;
+
+        targets[r] = new Column[names[r].length];
+
+        for (int i = 0; i < names[r].length; i++)
+          targets[r][i] = columns.computeIfAbsent(names[r][i],
+                                                  k -> new Column(runs));
+      }
+
+      for (int i = 0; i < targets[r].length; i++)
+      {
+        Column c = targets[r][i];
+        c.values[c.n++] = s.values[r][i];
+      }
+    }
+
+    for (Map.Entry<String, Column> e : columns.entrySet())
+    {
+      Column c = e.getValue();
+
+      if (c.n == 0)
+        continue;                             // Not in any run this step
+
+      double[] band = band(c.values, c.n);
+
+      for (BandListener l : listeners)
+        l.band(step, e.getKey(), band);
+
+      if (out != null)
+        write(step, e.getKey(), band);
+    }
+  }
+
+  private void write(int step, String name, double[] band) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(step).append(',').append(name.replace(',', ' '));
+
+    for (double b : band)
+    {
+      sb.append(',');
+
+      if (b == Math.rint(b))
+        sb.append((long) b);
+      else
+        sb.append(String.format("%.3f", b));
+    }
+    sb.append('\n');
+
+    out.write(sb.toString());
+  }
+
+  /**
+   * Summarise n values, in the order of COLUMNS.
+   *
+   * @param v Values (first n are used, and are sorted in place)
+   * @param n Number of values
+   * @return summary
+   */
+  static double[] band(long[] v, int n)
+  {
+    double[] band = new double[COLUMNS.length];
+    double sum = 0;
+
+    Arrays.sort(v, 0, n);
+
+    for (int i = 0; i < n; i++)
+      sum += v[i];
+
+    band[0] = n;
+    band[1] = sum / n;
+    band[2] = v[0];
+
+    for (int q = 0; q < QUANTILES.length; q++)
+    {
+      // Linear interpolation between closest ranks
+      double pos = QUANTILES[q] * (n - 1);
+      int lo = (int) Math.floor(pos);
+      int hi = Math.min(lo + 1, n - 1);
+
+      band[3 + q] = v[lo] + (pos - lo) * (v[hi] - v[lo]);
+    }
+
+    band[band.length - 1] = v[n - 1];
+
+    return band;
+  }
+}
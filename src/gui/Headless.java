@@ -0,0 +1,296 @@
+/* Program: Threadneedle
+ *
+ * Headless entry point for batch simulations. Runs the command line
+ * interface on a plain worker thread without starting the JavaFX
+ * toolkit, so that batch runs avoid toolkit startup and the FX thread
+ * hand-off on every command.
+ *
+ * Author : Copyright (c) Jacky Mallett
+ * Date   : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package gui;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+import com.google.gson.Gson;
+
+import base.Base;
+import core.*;
+import statistics.Statistic;
+
+import static base.Base.MAIN_CONFIG;
+import static gui.Common.simeng;
+
+public class Headless
+{
+  // Used if there is no simulation configuration file available.
+
+  static final String DEFAULT_COUNTRY    = "Erewhon";
+  static final String DEFAULT_GOVERNMENT = "BaselGovt";
+  static final String DEFAULT_BANKING    = "Basel Capital";
+
+  // Initial values of the static state in this copy of the simulation
+  // classes, recorded so that a context can be reset and reused.
+
+  private static final int  INITIAL_SEED    = Base.seed;
+  private static final int  INITIAL_HISTORY = Statistic.historyLength;
+
+  private static CLI cli = null;  // Command interpreter for context runs
+
+  /**
+   * Process command line arguments:
+   *    --b=file   Batch file to run. If not supplied, commands are read
+   *               from stdin.
+   *
+   * @param args command line arguments
+   */
+  public static void main(String[] args)
+  {
+    String batchfile = null;
+
+    for (String a : args)
+    {
+      if (a.startsWith("--b="))
+        batchfile = a.substring(4);
+      else
+        System.err.println("Ignoring unknown argument in headless mode: " + a);
+    }
+
+    createSimulation();
+
+    CLI cli = new CLI(null, null, batchfile);
+    Thread t = new Thread(cli);
+    t.setName("CLI-Thread");
+    t.start();
+  }
+
+  /**
+   * Create the simulation engine and government from the model
+   * configuration, equivalent to accepting the defaults in the gui's
+   * model configuration dialog.
+   */
+  static void createSimulation()
+  {
+    SimulationConfig sc = readConfig();
+
+    simeng = new PhaseEngine();
+    simeng.createGovt(sc.getCountry(), sc.getGovernment(),
+                      sc.getBankingSystem());
+  }
+
+  /**
+   * Read the simulation configuration named by the main config file, as
+   * ModelConfig does, falling back to the defaults.
+   *
+   * @return simulation configuration
+   */
+  private static SimulationConfig readConfig()
+  {
+    Gson gson = new Gson();
+    SimulationConfig sc = null;
+
+    try (BufferedReader br = new BufferedReader(new FileReader(MAIN_CONFIG)))
+    {
+      DefaultConfig config = gson.fromJson(br, DefaultConfig.class);
+
+      if (config != null && config.getLastConfigFile() != null)
+      {
+        try (BufferedReader cr = new BufferedReader(
+                                 new FileReader(config.getLastConfigFile())))
+        {
+          sc = gson.fromJson(cr, SimulationConfig.class);
+        }
+      }
+    }
+    catch (Exception e)
+    {
+      // No local configuration, use defaults
+    }
+
+    if (sc == null)
+      sc = new SimulationConfig();
+
+    if (sc.getCountry() == null)       sc.setCountry(DEFAULT_COUNTRY);
+    if (sc.getGovernment() == null)    sc.setGovernment(DEFAULT_GOVERNMENT);
+    if (sc.getBankingSystem() == null) sc.setBankingSystem(DEFAULT_BANKING);
+
+    return sc;
+  }
+
+  /*
+   * Entry points for SimulationContext. Each context loads its own copy
+   * of this class, so these operate on that context's simulation. They
+   * only exchange jdk types with the caller.
+   */
+
+  /**
+   * Create a new simulation, configured as for a batch run.
+   */
+  public static void open()
+  {
+    Ledger.postTransactions = false;
+    Statistic.historyLength = Integer.MAX_VALUE;
+
+    createSimulation();
+    cli = new CLI(null, null, null);
+  }
+
+  /**
+   * Return static simulation state to that of a freshly loaded context
+   * and create a new simulation. The precompiled core classes keep id
+   * counters which SimulationEngine.resetAll() does not clear, these are
+   * reset here so that a reused context is indistinguishable from a new
+   * one.
+   */
+  public static void reset()
+  {
+    Statistic.resetAll();
+    Base.resetAll();
+    Base.setRandom(INITIAL_SEED);
+    Statistic.historyLength = INITIAL_HISTORY;
+    Statistic.lazyEvaluation = false;
+
+    setStatic(Account.class, "nextIdNo", 1000000);
+    setStatic(Loan.class, "lastLoanId", 0);
+
+    open();
+  }
+
+  /**
+   * Execute a CLI command.
+   *
+   * @param line Command line
+   * @return false if the command is unknown or failed
+   */
+  public static boolean command(String line)
+  {
+    return cli.processCommand(line);
+  }
+
+  /**
+   * Step simulation.
+   *
+   * @param n Number of steps
+   */
+  public static void step(int n)
+  {
+    for (int i = 0; i < n; i++)
+      simeng.evaluate();
+  }
+
+  /**
+   * @return current simulation step
+   */
+  public static int getStep()
+  {
+    return Base.step;
+  }
+
+  /**
+   * Set the number of values each statistic keeps in its history.
+   *
+   * @param n Number of values
+   */
+  public static void setHistoryLength(int n)
+  {
+    Statistic.historyLength = n;
+  }
+
+  /**
+   * @return number of named statistics, which changes when statistics are
+   *         added or removed
+   */
+  public static int statisticCount()
+  {
+    return Statistic.names.size();
+  }
+
+  /**
+   * @return names of all named statistics
+   */
+  public static String[] statisticNames()
+  {
+    ArrayList<String> names = new ArrayList<>(Statistic.names.keySet());
+
+    names.remove(null);              // Nb. statistics may have no name
+    return names.toArray(new String[0]);
+  }
+
+  /**
+   * Return the last rolled over value of the named statistics.
+   *
+   * @param names Statistics to return
+   * @return values, 0 for unknown statistics
+   */
+  public static long[] latest(String[] names)
+  {
+    long[] values = new long[names.length];
+
+    for (int i = 0; i < names.length; i++)
+    {
+      Statistic s = Statistic.getStatistic(names[i]);
+
+      if (s != null)
+        values[i] = s.get();
+    }
+    return values;
+  }
+
+  /**
+   * @return checkpoint of the simulation
+   * @throws IOException on failure to write checkpoint
+   */
+  public static byte[] checkpoint() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    Checkpoint.save(simeng, bytes);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Restore the simulation from a checkpoint.
+   *
+   * @param state Checkpoint, as returned by checkpoint()
+   * @throws IOException on an invalid checkpoint
+   */
+  public static void restore(byte[] state) throws IOException
+  {
+    Checkpoint.restore(simeng, new ByteArrayInputStream(state));
+  }
+
+  /**
+   * Save the history of all statistics to file.
+   *
+   * @param filename File to write
+   * @throws IOException on write failure
+   */
+  public static void saveStatistics(String filename) throws IOException
+  {
+    Statistic.saveToCsv(filename);
+  }
+
+  private static void setStatic(Class<?> c, String name, int value)
+  {
+    try
+    {
+      Field field = c.getDeclaredField(name);
+      field.setAccessible(true);
+      field.setInt(null, value);
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("Unable to reset " + c.getName() + "."
+                                 + name, e);
+    }
+  }
+}
@@ -238,7 +238,7 @@ public class LedgerView extends TableView
     public boolean showRed()
     {
       return !((gl == null) || (ledger == null))
-             && (gl.myBank.reserveConstrained() && ledger.name.equals("reserve") || gl.myBank.capitalConstrained() && ledger.name.equals("capital"));
+             && (gl.myBank.reserveConstrained() && ledger.name.equals(LedgerSlot.RESERVE.ledger) || gl.myBank.capitalConstrained() && ledger.name.equals(LedgerSlot.CAPITAL.ledger));
     }
 
     /**
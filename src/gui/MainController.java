@@ -38,6 +38,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
+import statistics.Statistic;
 
 import java.lang.*;
 import java.io.BufferedWriter;
@@ -82,7 +83,7 @@ public class MainController extends Stage implements Initializable
   {
     // Create simulation engine
 
-    simeng = new SimulationEngine();
+    simeng = new PhaseEngine();
 
     FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource(
       "../../resources/threadneedle.fxml"));
@@ -507,6 +508,8 @@ public class MainController extends Stage implements Initializable
 
     if (simeng.loadSimulation(file))
     {
+      Statistic.notifyListeners();          // Attach new statistics to charts
+
       // All visible agents should be added to mainPane here
 
       for (Company c : simeng.companies)
@@ -727,6 +730,7 @@ public class MainController extends Stage implements Initializable
 
 	  Object obj = simeng.addEntity(source.getTypeClass(),
                                     source.getProperties(), bank, null);
+      Statistic.notifyListeners();
 
       SimNode newNode = new SimNode(source.getImage(), source.getTypeClass(),
 			                        obj);
@@ -0,0 +1,363 @@
+/* Program: Threadneedle
+ *
+ * SimulationContext : a self contained simulation instance.
+ *
+ * Simulation state (the current step, the random number generator, agent,
+ * account and loan id counters, and the statistics directory) is held in
+ * static fields that the precompiled core classes access directly. A
+ * context gives each simulation its own copy of those classes by loading
+ * the simulation packages through a private class loader, so that several
+ * independent simulations can be run concurrently within a single jvm.
+ * Third party libraries and the jdk are shared between contexts.
+ *
+ * A context may be reset and reused for a subsequent run, which avoids
+ * reloading and re-jitting the simulation classes for every run.
+ *
+ * A context can also be forked: the new context starts from a copy of the
+ * simulation at its current step, and continues independently. The copy is
+ * made through an in memory checkpoint (core.Checkpoint).
+ *
+ * Contexts are not thread safe: each context should only be driven by a
+ * single thread at a time.
+ *
+ * Author : Copyright (c) Jacky Mallett
+ * Date   : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package gui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class SimulationContext implements Closeable
+{
+  // Packages with simulation state, loaded separately for every context
+
+  private static final String[] ISOLATED =
+    {"base.", "statistics.", "core.", "agents.", "charts.", "gui."};
+
+  private static final String DRIVER = "gui.Headless";
+
+  private final IsolatingLoader loader;
+  private final Class<?>        driver;
+
+  private final HashMap<String, Method> methods = new HashMap<>();
+
+  /**
+   * Create a new context containing an empty simulation, configured as
+   * for a batch run.
+   */
+  public SimulationContext()
+  {
+    loader = new IsolatingLoader(classpath(),
+                                 SimulationContext.class.getClassLoader());
+    try
+    {
+      driver = loader.loadClass(DRIVER);
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new RuntimeException("Unable to load simulation classes", e);
+    }
+
+    call("open");
+  }
+
+  /**
+   * Create a new context containing a copy of the simulation in the
+   * checkpoint.
+   *
+   * @param state Checkpoint from checkpoint() or Checkpoint.save()
+   * @return new context
+   */
+  public static SimulationContext fork(byte[] state)
+  {
+    SimulationContext ctx = new SimulationContext();
+
+    ctx.restore(state);
+    return ctx;
+  }
+
+  /**
+   * Create a new context containing a copy of this context's simulation,
+   * at the current step.
+   *
+   * @return new context
+   */
+  public SimulationContext fork()
+  {
+    return fork(checkpoint());
+  }
+
+  /**
+   * @return In memory checkpoint of the context's simulation
+   */
+  public byte[] checkpoint()
+  {
+    return (byte[]) call("checkpoint");
+  }
+
+  /**
+   * Replace the context's simulation with a copy of the checkpoint.
+   *
+   * @param state Checkpoint
+   */
+  public void restore(byte[] state)
+  {
+    call("restore", (Object) state);
+  }
+
+  /**
+   * Discard the simulation and return the context to its initial state.
+   */
+  public void reset()
+  {
+    call("reset");
+  }
+
+  /**
+   * Load simulation configuration file into the context.
+   *
+   * @param file Configuration file
+   * @return false if the configuration could not be loaded
+   */
+  public boolean load(File file)
+  {
+    return command("load " + file.getPath());
+  }
+
+  /**
+   * Execute a CLI command in this context, e.g. "set seed 10".
+   *
+   * @param line command line
+   * @return false if the command is unknown or failed
+   */
+  public boolean command(String line)
+  {
+    return (Boolean) call("command", line);
+  }
+
+  /**
+   * Step the simulation.
+   *
+   * @param n number of steps
+   */
+  public void step(int n)
+  {
+    call("step", n);
+  }
+
+  /**
+   * @return Current step of the context's simulation
+   */
+  public int getStep()
+  {
+    return (Integer) call("getStep");
+  }
+
+  /**
+   * Set the number of values each statistic keeps in its history, which
+   * is unlimited in a new context.
+   *
+   * @param n Number of values
+   */
+  public void setHistoryLength(int n)
+  {
+    call("setHistoryLength", n);
+  }
+
+  /**
+   * @return Number of statistics registered in this context; names need
+   *         only be fetched again when it changes
+   */
+  public int statisticCount()
+  {
+    return (Integer) call("statisticCount");
+  }
+
+  /**
+   * @return Names of the statistics registered in this context
+   */
+  public String[] statisticNames()
+  {
+    return (String[]) call("statisticNames");
+  }
+
+  /**
+   * Return the last value recorded by each of the named statistics.
+   *
+   * @param names  Statistic names
+   * @return values in the same order as names
+   */
+  public long[] latest(String[] names)
+  {
+    return (long[]) call("latest", (Object) names);
+  }
+
+  /**
+   * Save the history of all the context's statistics to file.
+   *
+   * @param file File to write
+   */
+  public void saveStatistics(File file)
+  {
+    call("saveStatistics", file.getPath());
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    loader.close();
+  }
+
+  /**
+   * Invoke a static method on the context's copy of the driver.
+   *
+   * @param name Method name
+   * @param args Arguments
+   * @return result
+   */
+  Object call(String name, Object... args)
+  {
+    Method m = methods.get(name);
+
+    try
+    {
+      if (m == null)
+      {
+        for (Method candidate : driver.getMethods())
+        {
+          if (candidate.getName().equals(name)
+              && candidate.getParameterCount() == args.length)
+            m = candidate;
+        }
+
+        if (m == null)
+          throw new NoSuchMethodException(DRIVER + "." + name);
+
+        methods.put(name, m);
+      }
+
+      // Any class loading from within the simulation must resolve to
+      // this context's classes.
+
+      Thread thread = Thread.currentThread();
+      ClassLoader previous = thread.getContextClassLoader();
+      thread.setContextClassLoader(loader);
+
+      try
+      {
+        return m.invoke(null, args);
+      }
+      finally
+      {
+        thread.setContextClassLoader(previous);
+      }
+    }
+    catch (InvocationTargetException e)
+    {
+      throw new RuntimeException(name + " failed in simulation context",
+                                 e.getTargetException());
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException(name + " failed in simulation context", e);
+    }
+  }
+
+  /**
+   * @return class path entries of the running jvm
+   */
+  private static URL[] classpath()
+  {
+    ArrayList<URL> urls = new ArrayList<>();
+
+    for (String entry : System.getProperty("java.class.path")
+                              .split(File.pathSeparator))
+    {
+      if (entry.isEmpty())
+        continue;
+
+      try
+      {
+        if (entry.endsWith("*"))       // Wildcard directory of jars
+        {
+          File[] jars = new File(entry.substring(0, entry.length() - 1))
+                          .listFiles((d, n) -> n.endsWith(".jar"));
+
+          if (jars != null)
+            for (File jar : jars)
+              urls.add(jar.toURI().toURL());
+        }
+        else
+          urls.add(new File(entry).toURI().toURL());
+      }
+      catch (IOException e)
+      {
+        System.err.println("Ignoring class path entry: " + entry);
+      }
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  /**
+   * Class loader which loads the simulation packages itself, and
+   * delegates everything else to its parent.
+   */
+  private static class IsolatingLoader extends URLClassLoader
+  {
+    static
+    {
+      registerAsParallelCapable();
+    }
+
+    IsolatingLoader(URL[] urls, ClassLoader parent)
+    {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+      throws ClassNotFoundException
+    {
+      if (!isolated(name))
+        return super.loadClass(name, resolve);
+
+      synchronized (getClassLoadingLock(name))
+      {
+        Class<?> c = findLoadedClass(name);
+
+        if (c == null)
+          c = findClass(name);
+
+        if (resolve)
+          resolveClass(c);
+
+        return c;
+      }
+    }
+
+    private static boolean isolated(String name)
+    {
+      for (String prefix : ISOLATED)
+      {
+        if (name.startsWith(prefix))
+          return true;
+      }
+      return false;
+    }
+  }
+}
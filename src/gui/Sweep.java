@@ -0,0 +1,243 @@
+/* Program: Threadneedle
+ *
+ * Sweep : Run a parameter sweep over a base configuration.
+ *
+ * Every combination of the parameter grid and the seed list is run as an
+ * independent simulation on a bounded pool of worker threads. Each worker
+ * owns a SimulationContext which it resets between runs, so the simulation
+ * classes are loaded and compiled once per worker rather than once per run.
+ *
+ * Parameters use the same agent/field pairs as the CLI set command, e.g.
+ *
+ *   sweep.addParameter("Farm-5", "labourInput", "1", "2", "3");
+ *
+ * Each run writes its results to <outdir>/run-NNNN/ :
+ *
+ *   parameters      - seed and parameter values for the run
+ *   statistics.csv  - history of all statistics (see Statistic.saveToCsv)
+ *
+ * Author : Copyright (c) Jacky Mallett
+ * Date   : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+
+package gui;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Sweep
+{
+  private final File config;                // Base configuration
+  private final int  steps;                 // Steps to run each simulation
+  private final File outdir;                // Directory for results
+
+  private final ArrayList<Integer>  seeds  = new ArrayList<>();
+  private final ArrayList<String[]> params = new ArrayList<>(); // agent, field
+  private final ArrayList<String[]> values = new ArrayList<>(); // per param
+
+  /**
+   * Constructor
+   *
+   * @param config Configuration file each run starts from
+   * @param steps  Number of steps to run
+   * @param outdir Directory to write run results to
+   */
+  public Sweep(File config, int steps, File outdir)
+  {
+    this.config = config;
+    this.steps  = steps;
+    this.outdir = outdir;
+  }
+
+  /**
+   * Add a seed. Every parameter combination is run once per seed; if no
+   * seeds are added the default seed is used.
+   *
+   * @param seed RNG seed
+   */
+  public void addSeed(int seed)
+  {
+    seeds.add(seed);
+  }
+
+  /**
+   * Add a parameter dimension to the grid.
+   *
+   * @param agent  Agent name, as for CLI set
+   * @param field  Field name, as for CLI set
+   * @param vals   Values to run
+   */
+  public void addParameter(String agent, String field, String... vals)
+  {
+    params.add(new String[] {agent, field});
+    values.add(vals);
+  }
+
+  /**
+   * @return Number of runs in the sweep
+   */
+  public int size()
+  {
+    int n = Math.max(seeds.size(), 1);
+
+    for (String[] v : values)
+      n *= v.length;
+
+    return n;
+  }
+
+  /**
+   * Run all combinations, blocking until they are complete.
+   *
+   * @param threads Maximum number of simulations to run concurrently
+   * @return Number of runs which failed
+   */
+  public int run(int threads)
+  {
+    int runs = size();
+    threads  = Math.max(1, Math.min(threads, runs));
+
+    outdir.mkdirs();
+
+    ThreadLocal<SimulationContext> context = new ThreadLocal<>();
+    ConcurrentLinkedQueue<SimulationContext> contexts
+      = new ConcurrentLinkedQueue<>();
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r);
+      t.setName("Sweep-" + t.getId());
+      return t;
+    });
+
+    AtomicInteger failed = new AtomicInteger();
+    ArrayList<Future<?>> results = new ArrayList<>(runs);
+
+    for (int i = 0; i < runs; i++)
+    {
+      final int run = i;
+
+      results.add(pool.submit(() -> {
+        SimulationContext ctx = context.get();
+
+        if (ctx == null)
+        {
+          ctx = new SimulationContext();
+          context.set(ctx);
+          contexts.add(ctx);
+        }
+        else
+          ctx.reset();
+
+        try
+        {
+          execute(ctx, run);
+        }
+        catch (Exception e)
+        {
+          failed.incrementAndGet();
+          System.err.println("Sweep run " + run + " failed: " + e);
+        }
+      }));
+    }
+
+    for (Future<?> f : results)
+    {
+      try
+      {
+        f.get();
+      }
+      catch (Exception e)
+      {
+        failed.incrementAndGet();
+        System.err.println("Sweep run failed: " + e);
+      }
+    }
+    pool.shutdown();
+
+    for (SimulationContext ctx : contexts)
+    {
+      try
+      {
+        ctx.close();
+      }
+      catch (IOException e)
+      {
+        // ignore
+      }
+    }
+    return failed.get();
+  }
+
+  /**
+   * Execute a single run of the sweep.
+   *
+   * @param ctx Context to run in
+   * @param run Run number, used to derive seed and parameters
+   * @throws IOException on failure to load config or write results
+   * @throws IllegalArgumentException if a setting was not applied
+   */
+  private void execute(SimulationContext ctx, int run) throws IOException
+  {
+    File dir = new File(outdir, String.format("run-%04d", run));
+    dir.mkdirs();
+
+    ArrayList<String> settings = settings(run);
+
+    if (!ctx.load(config))
+      throw new IOException("Failed to load " + config);
+
+    try (BufferedWriter bw = new BufferedWriter(
+                             new FileWriter(new File(dir, "parameters"))))
+    {
+      bw.write("config " + config.getPath() + "\n");
+      bw.write("steps "  + steps + "\n");
+
+      for (String s : settings)
+      {
+        if (!ctx.command(s))
+          throw new IllegalArgumentException("Failed to apply: " + s);
+
+        bw.write(s + "\n");
+      }
+    }
+
+    ctx.step(steps);
+    ctx.saveStatistics(new File(dir, "statistics.csv"));
+  }
+
+  /**
+   * Return the set commands for the given run. Runs are numbered with the
+   * seed varying fastest, then the parameters in order added.
+   *
+   * @param run Run number
+   * @return CLI set commands for the run
+   */
+  ArrayList<String> settings(int run)
+  {
+    ArrayList<String> settings = new ArrayList<>();
+
+    if (seeds.size() > 0)
+    {
+      settings.add("set seed " + seeds.get(run % seeds.size()));
+      run /= seeds.size();
+    }
+
+    for (int i = 0; i < params.size(); i++)
+    {
+      String[] v = values.get(i);
+
+      settings.add("set " + params.get(i)[0] + " " + params.get(i)[1] + " "
+                   + v[run % v.length]);
+      run /= v.length;
+    }
+    return settings;
+  }
+}
@@ -33,9 +33,38 @@ import core.*;
 public class TransactionView extends Stage implements Initializable
 {
   @FXML ListView<String> transactions;
-  ObservableList<String> items = FXCollections.observableArrayList();
+  ObservableList<String> items;
   Ledger ledger;                             // Ledger being displayed
 
+  /**
+   * The ledger's transactions when the view was opened, rendered as they
+   * are displayed, so that a journalled ledger (see core.Journal) is paged
+   * in as it is scrolled rather than copied.
+   */
+  static class Rendered extends ObservableListBase<String>
+  {
+    private final List<Transaction> list;
+    private final int               size;
+
+    Rendered(List<Transaction> list)
+    {
+      this.list = list;
+      this.size = list.size();
+    }
+
+    @Override
+    public String get(int i)
+    {
+      return list.get(i).toString();
+    }
+
+    @Override
+    public int size()
+    {
+      return size;
+    }
+  }
+
   public TransactionView(Ledger ledger)
   {
     FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource(
@@ -60,11 +89,8 @@ public class TransactionView extends Stage implements Initializable
   @Override
   public void initialize(URL url, ResourceBundle resourceBundle)
   {
+    items = new Rendered(ledger.transactions);
     transactions.setItems(items);
-    for (Transaction t : ledger.transactions)
-    {
-      items.add(t.toString());
-    }
   }
 
   @FXML void onOkButton(ActionEvent event)
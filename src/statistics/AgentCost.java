@@ -0,0 +1,197 @@
+/* Program   : Threadneedle
+ *
+ * AgentCost : Sampled wall time and allocation of agent evaluation, by
+ *             concrete agent class.
+ *
+ * Every evaluation is counted, and one in every n evaluations of each class
+ * is timed, with the bytes allocated by the evaluating thread measured if
+ * the JVM supports it. Totals for each class are estimated from its sampled
+ * mean, and reported per step over the window since the last report.
+ *
+ *   if (cost.sample(agent.getClass()))
+ *   {
+ *     long t = System.nanoTime(), b = AgentCost.allocated();
+ *     agent.evaluate(step, report);
+ *     cost.record(agent.getClass(), System.nanoTime() - t,
+ *                 AgentCost.allocated() - b);
+ *   }
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class AgentCost
+{
+  private static final com.sun.management.ThreadMXBean threads = allocBean();
+
+  private final int every;                 // Sample 1 in every evaluations
+
+  private final HashMap<Class<?>, Cost> costs = new HashMap<>();
+
+  private int steps = 0;                   // Steps in current window
+
+  /**
+   * Accumulated cost for one class.
+   */
+  private static class Cost
+  {
+    long evaluations = 0;
+    long sampled     = 0;
+    long nanos       = 0;
+    long bytes       = 0;
+
+    double estNanos()
+    {
+      return sampled == 0 ? 0 : (double) nanos * evaluations / sampled;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param every Sample one in every n evaluations of each class, 1 to time
+   *              every evaluation
+   */
+  public AgentCost(int every)
+  {
+    this.every = Math.max(1, every);
+  }
+
+  public int getEvery()
+  {
+    return every;
+  }
+
+  /**
+   * Count an evaluation of class, and decide whether it is to be sampled.
+   *
+   * @param c Concrete class of agent about to be evaluated
+   * @return t/f time this evaluation and record()
+   */
+  public boolean sample(Class<?> c)
+  {
+    Cost cost = costs.get(c);
+
+    if (cost == null)
+      costs.put(c, cost = new Cost());
+
+    return cost.evaluations++ % every == 0;
+  }
+
+  /**
+   * Record a sampled evaluation.
+   *
+   * @param c     Concrete class of agent
+   * @param nanos Wall time of evaluation
+   * @param bytes Bytes allocated during evaluation (0 if not supported)
+   */
+  public void record(Class<?> c, long nanos, long bytes)
+  {
+    Cost cost = costs.get(c);
+
+    cost.sampled++;
+    cost.nanos += nanos;
+    cost.bytes += Math.max(0, bytes);
+  }
+
+  /**
+   * Mark the end of a step in the current window.
+   */
+  public void endStep()
+  {
+    steps++;
+  }
+
+  /**
+   * Print estimated cost per step for each class, highest first, over the
+   * steps since the last report, and start a new window.
+   *
+   * @param out Stream to print to
+   */
+  public void report(PrintStream out)
+  {
+    int n = Math.max(1, steps);
+    double total = 0;
+
+    ArrayList<Class<?>> classes = new ArrayList<>(costs.keySet());
+
+    for (Cost cost : costs.values())
+      total += cost.estNanos();
+
+    classes.sort((a, b) -> Double.compare(costs.get(b).estNanos(),
+                                          costs.get(a).estNanos()));
+
+    out.println("Agent cost over " + steps + " steps, sampling 1 in " + every
+                + (threads == null ? " (allocation not supported)" : ""));
+    out.println(String.format("%-20s %10s %10s %10s %10s %10s %6s",
+                              "class", "evals/stp", "sampled", "us/step",
+                              "us/eval", "KB/step", "%time"));
+
+    for (Class<?> c : classes)
+    {
+      Cost cost = costs.get(c);
+      double bytes = cost.sampled == 0 ? 0
+                     : (double) cost.bytes * cost.evaluations / cost.sampled;
+
+      out.println(String.format("%-20s %10.1f %10d %10.1f %10.2f %10.1f %6.1f",
+                                c.getSimpleName(),
+                                (double) cost.evaluations / n, cost.sampled,
+                                cost.estNanos() / n / 1e3,
+                                cost.sampled == 0 ? 0
+                                : cost.nanos / 1e3 / cost.sampled,
+                                bytes / n / 1024,
+                                total == 0 ? 0 : 100 * cost.estNanos() / total));
+    }
+
+    costs.clear();
+    steps = 0;
+  }
+
+  /**
+   * @return Bytes allocated so far by the current thread, 0 if the JVM
+   *         does not support measuring it.
+   */
+  public static long allocated()
+  {
+    return threads == null ? 0
+           : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean allocBean()
+  {
+    try
+    {
+      java.lang.management.ThreadMXBean bean
+        = ManagementFactory.getThreadMXBean();
+
+      if (bean instanceof com.sun.management.ThreadMXBean)
+      {
+        com.sun.management.ThreadMXBean b
+          = (com.sun.management.ThreadMXBean) bean;
+
+        if (b.isThreadAllocatedMemorySupported())
+        {
+          b.setThreadAllocatedMemoryEnabled(true);
+          return b;
+        }
+      }
+    }
+    catch (Throwable e)
+    {
+      // Fall through - allocation is not reported
+    }
+    return null;
+  }
+}
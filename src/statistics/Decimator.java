@@ -0,0 +1,182 @@
+/* Program   : Threadneedle
+ *
+ * Decimator : Reduce a statistic's history to a given number of points for
+ *             display or export.
+ *
+ * view() chooses the finest of the statistic's levels (steps, months,
+ * years - see Statistic.getHistory(Base.Time)) which covers the longest
+ * span of the run, reading no more than OVERSAMPLE points per point
+ * wanted where possible, and reduces it with Largest-Triangle-Three-
+ * Buckets, which keeps the peaks and troughs a plot would show. The cost
+ * is therefore proportional to the number of points, not the length of
+ * the run.
+ *
+ *   long[][] xy = Decimator.view(stat, 600);    // xy[0] steps, xy[1] values
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import base.Base;
+
+public class Decimator
+{
+  private static final int OVERSAMPLE = 4;
+
+  /**
+   * Return up to points values from the statistic's history, with the
+   * step each represents (the end of its period for months and years).
+   *
+   * @param s      Statistic
+   * @param points Maximum no. of points
+   * @return {steps, values}, oldest first
+   */
+  public static long[][] view(Statistic s, int points)
+  {
+    Base.Time resolution = resolution(s, points);
+
+    long[] y    = s.getHistory(resolution);
+    int    last = s.getLastStep(resolution);
+    int    dx   = resolution == Base.Time.DAY ? Math.max(1, s.stepModulo)
+                                             : resolution.period();
+    long[] x    = new long[y.length];
+
+    for (int i = 0; i < y.length; i++)
+      x[i] = last - (long) (y.length - 1 - i) * dx;
+
+    int[] keep = lttb(x, y, points);
+
+    long[][] xy = new long[2][keep.length];
+
+    for (int i = 0; i < keep.length; i++)
+    {
+      xy[0][i] = x[keep[i]];
+      xy[1][i] = y[keep[i]];
+    }
+    return xy;
+  }
+
+  /**
+   * Return the finest level which spans (within a year) as much of the run
+   * as any level, preferring one with no more than OVERSAMPLE * points
+   * values.
+   *
+   * @param s      Statistic
+   * @param points No. of points wanted
+   * @return resolution
+   */
+  public static Base.Time resolution(Statistic s, int points)
+  {
+    Base.Time[] levels = Base.Time.values();
+    long[]      span   = new long[levels.length];
+    long        widest = 0;
+
+    for (int i = 0; i < levels.length; i++)
+    {
+      int dx = levels[i] == Base.Time.DAY ? Math.max(1, s.stepModulo)
+                                          : levels[i].period();
+
+      span[i] = (long) s.size(levels[i]) * dx;
+      widest  = Math.max(widest, span[i]);
+    }
+
+    Base.Time coarsest = Base.Time.DAY;
+
+    for (int i = 0; i < levels.length; i++)
+    {
+      if (span[i] + Base.Time.YEAR.period() < widest)
+        continue;
+
+      if (s.size(levels[i]) <= (long) OVERSAMPLE * points)
+        return levels[i];
+
+      coarsest = levels[i];
+    }
+    return coarsest;
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets decimation (Steinarsson, 2013). The
+   * first and last points are kept, and the rest divided into
+   * threshold - 2 buckets, from each of which the point forming the
+   * largest triangle with the point kept from the previous bucket and the
+   * average of the next bucket is kept.
+   *
+   * @param x         x values, ascending
+   * @param y         y values
+   * @param threshold No. of points to keep
+   * @return indices of the points kept, ascending
+   */
+  public static int[] lttb(long[] x, long[] y, int threshold)
+  {
+    int n = y.length;
+
+    if (threshold >= n)
+    {
+      int[] all = new int[n];
+
+      for (int i = 0; i < n; i++)
+        all[i] = i;
+      return all;
+    }
+
+    if (threshold < 3)                       // First and/or last only
+      return threshold <= 0 ? new int[0]
+             : threshold == 1 ? new int[] {n - 1} : new int[] {0, n - 1};
+
+    int[]  keep  = new int[threshold];
+    double every = (double) (n - 2) / (threshold - 2);
+    int    a     = 0;
+
+    keep[0] = 0;
+
+    for (int i = 0; i < threshold - 2; i++)
+    {
+      // Average of next bucket
+
+      int    from = (int) ((i + 1) * every) + 1;
+      int    to   = Math.min(n, (int) ((i + 2) * every) + 1);
+      double avgx = 0, avgy = 0;
+
+      for (int j = from; j < to; j++)
+      {
+        avgx += x[j];
+        avgy += y[j];
+      }
+      avgx /= Math.max(1, to - from);
+      avgy /= Math.max(1, to - from);
+
+      // Point in this bucket with the largest triangle
+
+      int    start = (int) (i * every) + 1;
+      int    end   = (int) ((i + 1) * every) + 1;
+      double max   = -1;
+      int    next  = start;
+
+      for (int j = start; j < end; j++)
+      {
+        double area = Math.abs((x[a] - avgx) * ((double) y[j] - y[a])
+                               - ((double) x[a] - x[j]) * (avgy - y[a]));
+
+        if (area > max)
+        {
+          max  = area;
+          next = j;
+        }
+      }
+
+      keep[i + 1] = next;
+      a           = next;
+    }
+
+    keep[threshold - 1] = n - 1;
+    return keep;
+  }
+}
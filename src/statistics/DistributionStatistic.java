@@ -0,0 +1,314 @@
+/* Program   : Threadneedle
+ *
+ * DistributionStatistic : Summary of the distribution of a quantity (e.g.
+ *                         deposits) across a population, published as
+ *                         statistics.
+ *
+ * Values are counted in a log-linear histogram, with 8 buckets per power
+ * of two, together with the sum in each bucket, so that no sort of the
+ * population is needed. From it are published, for the statistic's name:
+ *
+ *   name:p10, name:p50, name:p90, name:p99  quantiles (bucket mid-points)
+ *   name:gini                               Gini coefficient x 1000
+ *   name:entropy                            Shannon entropy of each
+ *                                           member's share of the total,
+ *                                           as a fraction of its maximum
+ *                                           (all equal) x 1000
+ *   name:hist:0, name:hist:1e0, ...         no. of values < 1, in
+ *                                           [1, 10), [10, 100) ...
+ *
+ * The Gini coefficient is calculated from the histogram, treating the
+ * values in each bucket as equal, which slightly understates it. The
+ * entropy is exact. Negative values are counted as 0. The histogram series
+ * are created as values first fall in them. All are lazy (see
+ * Statistic.setLazy()), and need only be computed while wanted().
+ *
+ * A member's value can be replaced with remove() and add(), so that the
+ * distribution is maintained as the values change (see core.DepositTotals)
+ * rather than summarised afresh:
+ *
+ *   d.clear();
+ *   for (Person p : persons)
+ *     d.add(p.getDeposit());
+ *   d.publish();
+ *   ...
+ *   d.remove(old);
+ *   d.add(deposit);
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import java.util.Arrays;
+
+public class DistributionStatistic
+{
+  private static final int SUB     = 3;                // log2 sub-buckets
+  private static final int SUBS    = 1 << SUB;
+  private static final int BUCKETS = (64 - SUB + 1) * SUBS;
+  private static final int DECADES = 20;               // < 1, 1e0 .. 1e18
+
+  private final long[]   counts  = new long[BUCKETS];
+  private final double[] sums    = new double[BUCKETS];
+  private final long[]   decades = new long[DECADES];
+
+  private long   n      = 0;
+  private double total  = 0;
+  private double wlogw  = 0;                   // Sum of v * ln(v)
+
+  private final String      name;
+  private final int         modulo;
+  private final Statistic   s_p10, s_p50, s_p90, s_p99, s_gini, s_entropy;
+  private final Statistic[] s_hist;
+
+  /**
+   * Constructor
+   *
+   * @param name   Prefix for the statistics published
+   * @param group  Group for the Gini coefficient (the other statistics
+   *               are not in a group)
+   * @param modulo No. of steps between each publish()
+   */
+  public DistributionStatistic(String name, String group, int modulo)
+  {
+    this.name   = name;
+    this.modulo = modulo;
+
+    s_p10     = series(name + ":p10", null);
+    s_p50     = series(name + ":p50", null);
+    s_p90     = series(name + ":p90", null);
+    s_p99     = series(name + ":p99", null);
+    s_gini    = series(name + ":gini", group);
+    s_entropy = series(name + ":entropy", null);
+    s_hist    = new Statistic[DECADES];
+  }
+
+  private Statistic series(String n, String g)
+  {
+    return Statistic.getStatistic(n, g, Statistic.Type.SINGLE, modulo)
+                    .setLazy(true);
+  }
+
+  /**
+   * @return t/f any of the published statistics is wanted
+   */
+  public boolean wanted()
+  {
+    for (Statistic s : new Statistic[] {s_p10, s_p50, s_p90, s_p99, s_gini,
+                                        s_entropy})
+      if (s.wanted())
+        return true;
+
+    for (Statistic s : s_hist)
+      if (s != null && s.wanted())
+        return true;
+
+    return false;
+  }
+
+  /**
+   * Remove a member's value, added before.
+   *
+   * @param v value
+   */
+  public void remove(long v)
+  {
+    if (v < 0)
+      v = 0;
+
+    int b = bucket(v);
+
+    counts[b]--;
+    sums[b] -= v;
+    decades[decade(v)]--;
+
+    n--;
+    total -= v;
+
+    if (v > 0)
+      wlogw -= v * Math.log(v);
+  }
+
+  /**
+   * Add a member's value.
+   *
+   * @param v value
+   */
+  public void add(long v)
+  {
+    if (v < 0)
+      v = 0;
+
+    int b = bucket(v);
+
+    counts[b]++;
+    sums[b] += v;
+    decades[decade(v)]++;
+
+    n++;
+    total += v;
+
+    if (v > 0)
+      wlogw += v * Math.log(v);
+  }
+
+  public void clear()
+  {
+    Arrays.fill(counts, 0);
+    Arrays.fill(sums, 0);
+    Arrays.fill(decades, 0);
+
+    n     = 0;
+    total = 0;
+    wlogw = 0;
+  }
+
+  /**
+   * @return no. of values added
+   */
+  public long getCount()
+  {
+    return n;
+  }
+
+  /**
+   * Return the value at quantile q, as the mid-point of the bucket it falls
+   * in. Nb. not limited to the values held, so that it is the same however
+   * they were added.
+   *
+   * @param q quantile 0.0 - 1.0
+   * @return value, 0 if nothing added
+   */
+  public long quantile(double q)
+  {
+    if (n == 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(q * n));
+    long seen = 0;
+    int  i    = 0;
+
+    while ((seen += counts[i]) < rank)
+      i++;
+
+    return (lower(i) + upper(i)) / 2;
+  }
+
+  /**
+   * Return the Gini coefficient, from the Lorenz curve of the histogram.
+   *
+   * @return Gini coefficient 0.0 (equal) - 1.0
+   */
+  public double gini()
+  {
+    if (n == 0 || total <= 0)
+      return 0;
+
+    double area = 0;                     // Under the Lorenz curve, x 2
+    double cum  = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      if (counts[i] == 0)
+        continue;
+
+      double next = cum + sums[i] / total;
+
+      area += (double) counts[i] / n * (cum + next);
+      cum   = next;
+    }
+    return Math.max(0, 1 - area);
+  }
+
+  /**
+   * Return the Shannon entropy of the members' shares of the total, as a
+   * fraction of ln(n), the entropy when all shares are equal.
+   *
+   * @return normalised entropy 0.0 - 1.0
+   */
+  public double entropy()
+  {
+    if (n < 2 || total <= 0)
+      return 0;
+
+    double h = Math.log(total) - wlogw / total;
+
+    return Math.max(0, Math.min(1, h / Math.log(n)));
+  }
+
+  /**
+   * Add the summary of the values accumulated to the published statistics.
+   */
+  public void publish()
+  {
+    s_p10.add(quantile(0.10));
+    s_p50.add(quantile(0.50));
+    s_p90.add(quantile(0.90));
+    s_p99.add(quantile(0.99));
+    s_gini.add(Math.round(1000 * gini()));
+    s_entropy.add(Math.round(1000 * entropy()));
+
+    for (int i = 0; i < DECADES; i++)
+    {
+      if (s_hist[i] == null && decades[i] > 0)
+        s_hist[i] = series(name + ":hist:" + (i == 0 ? "0" : "1e" + (i - 1)),
+                           null);
+
+      if (s_hist[i] != null)
+        s_hist[i].add(decades[i]);
+    }
+  }
+
+  /**
+   * Values below SUBS have a bucket each; above, each power of two is
+   * split into SUBS buckets (as LatencyHistogram).
+   */
+  private static int bucket(long v)
+  {
+    if (v < SUBS)
+      return (int) v;
+
+    int exp = 63 - Long.numberOfLeadingZeros(v);          // >= SUB
+
+    return (exp - SUB + 1) * SUBS + (int) ((v >>> (exp - SUB)) & (SUBS - 1));
+  }
+
+  private static long lower(int i)
+  {
+    if (i < SUBS)
+      return i;
+
+    int exp = i / SUBS + SUB - 1;
+
+    return (long) (SUBS + i % SUBS) << (exp - SUB);
+  }
+
+  private static long upper(int i)
+  {
+    return i < SUBS ? i : lower(i) + (1L << (i / SUBS - 1)) - 1;
+  }
+
+  /**
+   * @return 0 for v < 1, otherwise 1 + the power of ten below v
+   */
+  private static int decade(long v)
+  {
+    int d = 0;
+
+    for (long p = 1; v >= p && d < DECADES - 1; p *= 10)
+    {
+      d++;
+
+      if (p > Long.MAX_VALUE / 10)
+        break;
+    }
+    return d;
+  }
+}
@@ -0,0 +1,116 @@
+/* Program   : Threadneedle
+ *
+ * LatencyHistogram : Fixed size log-linear histogram of durations.
+ *
+ * Values (nanoseconds) are counted in buckets of 32 sub-divisions per
+ * power of two, so recording is a few shifts and an array increment, and
+ * quantiles are accurate to about 3%. The maximum is recorded exactly.
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import java.util.Arrays;
+
+public class LatencyHistogram
+{
+  private static final int SUB     = 5;                // log2 sub-buckets
+  private static final int SUBS    = 1 << SUB;
+  private static final int BUCKETS = (64 - SUB + 1) * SUBS;
+
+  private final long[] counts = new long[BUCKETS];
+
+  private long count = 0;
+  private long total = 0;
+  private long max   = 0;
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos duration in nanoseconds
+   */
+  public synchronized void record(long nanos)
+  {
+    if (nanos < 0)
+      nanos = 0;
+
+    counts[bucket(nanos)]++;
+    count++;
+    total += nanos;
+
+    if (nanos > max)
+      max = nanos;
+  }
+
+  /**
+   * Return the value at quantile q, as the upper bound of the bucket it
+   * falls in (capped at the maximum recorded).
+   *
+   * @param q quantile 0.0 - 1.0
+   * @return value, 0 if nothing recorded
+   */
+  public synchronized long quantile(double q)
+  {
+    if (count == 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(q * count));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += counts[i];
+
+      if (seen >= rank)
+        return Math.min(upper(i), max);
+    }
+    return max;
+  }
+
+  public synchronized long getCount() { return count; }
+  public synchronized long getTotal() { return total; }
+  public synchronized long getMax()   { return max; }
+
+  public synchronized void reset()
+  {
+    Arrays.fill(counts, 0);
+    count = 0;
+    total = 0;
+    max   = 0;
+  }
+
+  /**
+   * Values below SUBS have a bucket each; above, each power of two is
+   * split into SUBS buckets.
+   */
+  private static int bucket(long v)
+  {
+    if (v < SUBS)
+      return (int) v;
+
+    int exp = 63 - Long.numberOfLeadingZeros(v);          // >= SUB
+
+    return (exp - SUB + 1) * SUBS + (int) ((v >>> (exp - SUB)) & (SUBS - 1));
+  }
+
+  /**
+   * @return largest value counted in bucket i
+   */
+  private static long upper(int i)
+  {
+    if (i < SUBS)
+      return i;
+
+    int exp = i / SUBS + SUB - 1;
+    long lower = (long) (SUBS + i % SUBS) << (exp - SUB);
+
+    return lower + (1L << (exp - SUB)) - 1;
+  }
+}
@@ -0,0 +1,83 @@
+/* Program   : Threadneedle
+ *
+ * Profiler : Named latency histograms for the phases of a simulation step.
+ *
+ * Phases are timed by the simulation engine, and by the charts when they
+ * are updated, and reported by the CLI profile command.
+ *
+ *   long t = System.nanoTime();
+ *   ...
+ *   t = Profiler.lap(shuffle, t);
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Profiler
+{
+  // Phases, in the order they were first used.
+
+  private static final LinkedHashMap<String, LatencyHistogram> phases
+    = new LinkedHashMap<>();
+
+  /**
+   * Return the histogram for a phase, creating it if necessary.
+   *
+   * @param name phase name
+   * @return histogram
+   */
+  public static synchronized LatencyHistogram phase(String name)
+  {
+    return phases.computeIfAbsent(name, k -> new LatencyHistogram());
+  }
+
+  /**
+   * Record the time since start against a phase.
+   *
+   * @param phase Phase histogram
+   * @param start System.nanoTime() at start of phase
+   * @return current time, as start of the next phase
+   */
+  public static long lap(LatencyHistogram phase, long start)
+  {
+    long now = System.nanoTime();
+
+    phase.record(now - start);
+    return now;
+  }
+
+  /**
+   * Print p50/p99/max per phase, in microseconds, and reset all phases.
+   *
+   * @param out Stream to print to
+   */
+  public static synchronized void report(PrintStream out)
+  {
+    out.println(String.format("%-12s %10s %10s %10s %10s %12s", "phase",
+                              "count", "p50(us)", "p99(us)", "max(us)",
+                              "total(ms)"));
+
+    for (Map.Entry<String, LatencyHistogram> e : phases.entrySet())
+    {
+      LatencyHistogram h = e.getValue();
+
+      out.println(String.format("%-12s %10d %10.1f %10.1f %10.1f %12.1f",
+                                e.getKey(), h.getCount(),
+                                h.quantile(0.50) / 1e3,
+                                h.quantile(0.99) / 1e3,
+                                h.getMax() / 1e3, h.getTotal() / 1e6));
+      h.reset();
+    }
+  }
+}
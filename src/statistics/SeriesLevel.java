@@ -0,0 +1,136 @@
+/* Program   : Threadneedle
+ *
+ * SeriesLevel : One downsampled level of a statistic's history.
+ *
+ * Values appended to the statistic are averaged over periods of steps
+ * (Base.Time.MONTH, YEAR), a period ending on the step where
+ * step % period == 0, as Base.Time.endOfMonth(). The mean of each
+ * completed period is kept in a ring buffer of at most LENGTH values, so
+ * that memory is bounded however long the run. Periods in which nothing
+ * was appended (e.g. for statistics with a longer stepModulo) repeat the
+ * previous period's value.
+ *
+ * Author    : Jacky Mallett
+ * Date      : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+class SeriesLevel
+{
+  static final int LENGTH = 1200;           // Periods kept
+
+  final int period;                         // Steps per value
+
+  private int  current = -1;                // Period being accumulated
+  private long sum     = 0;
+  private int  n       = 0;
+
+  private long[] values = new long[0];      // Ring buffer of means
+  private int    first  = 0;                // Index of oldest value
+  private int    held   = 0;
+  private int    last   = -1;               // Period of newest value
+
+  SeriesLevel(int period)
+  {
+    this.period = period;
+  }
+
+  /**
+   * Add value appended at step.
+   */
+  void add(int step, long v)
+  {
+    int p = Math.max(0, step - 1) / period;
+
+    if (p != current && n > 0)
+      close();
+
+    current = p;
+    sum    += v;
+    n++;
+
+    if (step % period == 0)
+      close();
+  }
+
+  /**
+   * Complete current period.
+   */
+  private void close()
+  {
+    long mean = sum / n;
+
+    // Fill periods with no values from the last one held
+
+    if (held > 0)
+      for (int p = Math.max(last + 1, current - LENGTH); p < current; p++)
+        push(at(held - 1));
+
+    push(mean);
+    last = current;
+    sum  = 0;
+    n    = 0;
+  }
+
+  private void push(long v)
+  {
+    if (held == values.length && held < LENGTH)
+    {
+      long[] buffer = new long[Math.min(LENGTH, Math.max(16, 2 * held))];
+
+      copy(buffer);
+      values = buffer;
+      first  = 0;
+    }
+
+    if (held < values.length)
+      values[(first + held++) % values.length] = v;
+    else
+    {
+      values[first] = v;                    // Overwrite oldest
+      first = (first + 1) % values.length;
+    }
+  }
+
+  private long at(int i)
+  {
+    return values[(first + i) % values.length];
+  }
+
+  /**
+   * @return no. of completed periods held
+   */
+  int size()
+  {
+    return held;
+  }
+
+  /**
+   * @return step at the end of the newest period held, -1 if none
+   */
+  int lastStep()
+  {
+    return held == 0 ? -1 : (last + 1) * period;
+  }
+
+  /**
+   * Copy the most recent values, oldest first.
+   *
+   * @return no. of values copied
+   */
+  int copy(long[] dest)
+  {
+    int k = Math.min(held, dest.length);
+
+    for (int i = 0; i < k; i++)
+      dest[i] = at(held - k + i);
+
+    return k;
+  }
+}
@@ -0,0 +1,511 @@
+/* Program     : Threadneedle
+ *
+ * SeriesStore : Column store of every value of every statistic for a whole
+ *               run, held in memory mapped files.
+ *
+ * Each statistic is a column of longs, one per recorded step, written at
+ * rollover (see Statistic.setStore()). Columns are kept in blocks of
+ * BLOCK values, allocated as needed from segment files of SEGMENT blocks
+ * each, so that the heap holds only the block numbers of each column, and
+ * the operating system pages the values in and out.
+ *
+ *   <dir>/seg-00000.dat  - blocks, BLOCK * 8 bytes each, big endian
+ *   <dir>/index          - columns and their blocks, written by flush()
+ *
+ * A column records a value at steps firstStep, firstStep + stride, ...
+ * where stride is the statistic's stepModulo when it was first recorded.
+ * Steps with no value (e.g. while a statistic was removed) are MISSING.
+ *
+ * A store is opened read only with SeriesStore.open(dir) for analysis
+ * after the run.
+ *
+ * Author      : Jacky Mallett
+ * Date        : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import base.Base;
+
+import java.io.*;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class SeriesStore implements Closeable
+{
+  public static final long MISSING = Long.MIN_VALUE;  // No value at step
+
+  private static final int BLOCK   = 512;             // Values per block
+  private static final int SEGMENT = 16384;           // Blocks per segment
+  private static final int MAGIC   = 0x544e5353;      // "TNSS"
+  private static final int VERSION = 1;
+
+  private final File    dir;
+  private final boolean readOnly;
+  private boolean       closed = false;
+
+  private final ArrayList<FileChannel> channels = new ArrayList<>();
+  private final ArrayList<LongBuffer>  segments = new ArrayList<>();
+
+  private int blocks = 0;                        // Blocks allocated
+
+  private final HashMap<String, Column> columns = new HashMap<>();
+
+  // Column last written by each statistic, by handle, so that appending
+  // does not look up the statistic's name. Cleared when the statistic is
+  // removed, as its handle may be reused.
+
+  private Column[] byHandle = new Column[1024];
+
+  /**
+   * Series for one statistic.
+   */
+  private static class Column
+  {
+    final String name;
+    int          firstStep;
+    int          stride;
+    long         count  = 0;                     // Values recorded
+    int[]        blocks = new int[4];            // Block numbers in order
+    int          used   = 0;                     // Blocks in use
+
+    Column(String name, int firstStep, int stride)
+    {
+      this.name      = name;
+      this.firstStep = firstStep;
+      this.stride    = Math.max(1, stride);
+    }
+  }
+
+  /**
+   * Create a new store in a directory, replacing any store already there.
+   *
+   * @param dir Directory, created if necessary
+   * @throws IOException if the directory cannot be created
+   */
+  public SeriesStore(File dir) throws IOException
+  {
+    this(dir, false);
+
+    dir.mkdirs();
+
+    if (!dir.isDirectory())
+      throw new IOException("Cannot create directory " + dir);
+
+    File[] old = dir.listFiles((d, n) -> n.startsWith("seg-")
+                                         || n.equals("index"));
+
+    if (old != null)
+      for (File f : old)
+        f.delete();
+  }
+
+  private SeriesStore(File dir, boolean readOnly)
+  {
+    this.dir      = dir;
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Open an existing store read only.
+   *
+   * @param dir Directory written by a store
+   * @return store
+   * @throws IOException if the index or segments cannot be read
+   */
+  public static SeriesStore open(File dir) throws IOException
+  {
+    SeriesStore store = new SeriesStore(dir, true);
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                new FileInputStream(new File(dir, "index")))))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readInt() != BLOCK || in.readInt() != SEGMENT)
+        throw new IOException("Not a series store: " + dir);
+
+      store.blocks = in.readInt();
+
+      for (int i = in.readInt(); i > 0; i--)
+      {
+        Column c = new Column(in.readUTF(), in.readInt(), in.readInt());
+
+        c.count  = in.readLong();
+        c.used   = in.readInt();
+        c.blocks = new int[c.used];
+
+        for (int b = 0; b < c.used; b++)
+          c.blocks[b] = in.readInt();
+
+        store.columns.put(c.name, c);
+      }
+    }
+
+    for (int s = 0; s * SEGMENT < store.blocks; s++)
+      store.map(s);
+
+    return store;
+  }
+
+  /**
+   * Record a statistic's value at the current step. Called by the
+   * statistic as it is appended to its history.
+   *
+   * @param s Statistic
+   * @param v Value
+   */
+  public synchronized void append(Statistic s, long v)
+  {
+    if (closed)
+      throw new IllegalStateException("Series store is closed: " + dir);
+
+    int h = s.getHandle();
+
+    if (h >= byHandle.length)
+      byHandle = Arrays.copyOf(byHandle, Math.max(h + 1, 2 * byHandle.length));
+
+    Column c = byHandle[h];
+
+    if (c == null)
+      c = byHandle[h] = column(s);
+
+    long i = Math.max(0, (long) (Base.step - c.firstStep) / c.stride);
+
+    if (i < c.count)                       // Step already recorded
+      i = c.count - 1;
+
+    while (c.count < i)
+      put(c, c.count++, MISSING);
+
+    put(c, i, v);
+    c.count = i + 1;
+  }
+
+  /**
+   * Forget the column written through a handle. Called when its statistic
+   * is removed, so that a statistic given the handle next is recorded
+   * under its own name.
+   *
+   * @param handle Statistic's handle
+   */
+  synchronized void release(int handle)
+  {
+    if (handle < byHandle.length)
+      byHandle[handle] = null;
+  }
+
+  /**
+   * @return column for statistic, created at the current step if new
+   */
+  private Column column(Statistic s)
+  {
+    if (readOnly)
+      throw new IllegalStateException("Series store is read only: " + dir);
+
+    Column c = columns.get(s.name);
+
+    if (c == null)
+      columns.put(s.name, c = new Column(s.name, Base.step, s.stepModulo));
+
+    return c;
+  }
+
+  /**
+   * Write value at index in column, allocating its block if necessary.
+   */
+  private void put(Column c, long i, long v)
+  {
+    int b = (int) (i / BLOCK);
+
+    while (b >= c.used)
+      addBlock(c);
+
+    buffer(c.blocks[b]).put(offset(c.blocks[b], i), v);
+  }
+
+  /**
+   * Allocate the next block to a column, mapping a new segment if
+   * necessary.
+   */
+  private void addBlock(Column c)
+  {
+    if (blocks % SEGMENT == 0)
+    {
+      try
+      {
+        map(blocks / SEGMENT);
+      }
+      catch (IOException e)
+      {
+        throw new UncheckedIOException("Unable to extend series store " + dir,
+                                       e);
+      }
+    }
+
+    if (c.used == c.blocks.length)
+      c.blocks = Arrays.copyOf(c.blocks, 2 * c.used);
+
+    c.blocks[c.used++] = blocks++;
+  }
+
+  /**
+   * Map segment s.
+   */
+  private void map(int s) throws IOException
+  {
+    File        f  = new File(dir, String.format("seg-%05d.dat", s));
+    FileChannel fc = readOnly
+                     ? FileChannel.open(f.toPath(), StandardOpenOption.READ)
+                     : FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.CREATE);
+    MappedByteBuffer mb = fc.map(readOnly ? FileChannel.MapMode.READ_ONLY
+                                          : FileChannel.MapMode.READ_WRITE,
+                                 0, (long) SEGMENT * BLOCK * Long.BYTES);
+
+    channels.add(fc);
+    segments.add(mb.asLongBuffer());
+  }
+
+  private LongBuffer buffer(int block)
+  {
+    return segments.get(block / SEGMENT);
+  }
+
+  private static int offset(int block, long i)
+  {
+    return (block % SEGMENT) * BLOCK + (int) (i % BLOCK);
+  }
+
+  /**
+   * @return names of recorded statistics, sorted
+   */
+  public synchronized List<String> names()
+  {
+    ArrayList<String> names = new ArrayList<>(columns.keySet());
+
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * @param name Statistic
+   * @return no. of values recorded, 0 if statistic not recorded
+   */
+  public synchronized long getCount(String name)
+  {
+    Column c = columns.get(name);
+
+    return c == null ? 0 : c.count;
+  }
+
+  /**
+   * @param name Statistic
+   * @return step of first value recorded, -1 if statistic not recorded
+   */
+  public synchronized int getFirstStep(String name)
+  {
+    Column c = columns.get(name);
+
+    return c == null ? -1 : c.firstStep;
+  }
+
+  /**
+   * @param name Statistic
+   * @return steps between recorded values, -1 if statistic not recorded
+   */
+  public synchronized int getStride(String name)
+  {
+    Column c = columns.get(name);
+
+    return c == null ? -1 : c.stride;
+  }
+
+  /**
+   * Copy values from a column by index.
+   *
+   * @param name  Statistic
+   * @param from  Index of first value, 0 is the first recorded
+   * @param dest  Array to copy to
+   * @param off   Offset in dest
+   * @param len   Maximum no. of values to copy
+   * @return no. of values copied
+   */
+  public synchronized int read(String name, long from, long[] dest, int off,
+                               int len)
+  {
+    Column c = columns.get(name);
+
+    if (c == null || from < 0 || from >= c.count)
+      return 0;
+
+    int n = (int) Math.min(len, c.count - from);
+
+    for (int done = 0; done < n; )
+    {
+      long i     = from + done;
+      int  block = c.blocks[(int) (i / BLOCK)];
+      int  run   = (int) Math.min(n - done, BLOCK - i % BLOCK);
+
+      LongBuffer lb = buffer(block).duplicate();
+
+      lb.position(offset(block, i));
+      lb.get(dest, off + done, run);
+      done += run;
+    }
+    return n;
+  }
+
+  /**
+   * Return the values of a statistic recorded in a range of steps.
+   *
+   * @param name     Statistic
+   * @param fromStep First step, inclusive
+   * @param toStep   Last step, inclusive
+   * @return values, oldest first, MISSING where none was recorded
+   */
+  public synchronized long[] range(String name, int fromStep, int toStep)
+  {
+    Column c = columns.get(name);
+
+    if (c == null || toStep < c.firstStep)
+      return new long[0];
+
+    long from = Math.max(0, ceilDiv((long) fromStep - c.firstStep, c.stride));
+    long to   = Math.min(c.count - 1, ((long) toStep - c.firstStep) / c.stride);
+
+    if (to < from)
+      return new long[0];
+
+    long[] values = new long[(int) (to - from + 1)];
+
+    read(name, from, values, 0, values.length);
+    return values;
+  }
+
+  private static long ceilDiv(long a, long b)
+  {
+    return -Math.floorDiv(-a, b);
+  }
+
+  /**
+   * Save recorded statistics between two steps, one statistic per line in
+   * the same format as Statistic.saveToCsv(), with missing values empty.
+   *
+   * @param filename File to write
+   * @param fromStep First step, inclusive
+   * @param toStep   Last step, inclusive
+   * @throws IOException on write failure
+   */
+  public synchronized void saveToCsv(String filename, int fromStep,
+                                     int toStep) throws IOException
+  {
+    try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename)))
+    {
+      for (String name : names())
+      {
+        bw.write(name);
+        bw.write(';');
+
+        for (long v : range(name, fromStep, toStep))
+        {
+          if (v != MISSING)
+            bw.write(Long.toString(v));
+          bw.write(';');
+        }
+        bw.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Write the index, so that the store can be opened after the run. The
+   * segments are written back by the operating system.
+   *
+   * @throws IOException on write failure
+   */
+  public synchronized void flush() throws IOException
+  {
+    if (readOnly || closed)
+      return;
+
+    File index = new File(dir, "index.tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                  new FileOutputStream(index))))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(BLOCK);
+      out.writeInt(SEGMENT);
+      out.writeInt(blocks);
+      out.writeInt(columns.size());
+
+      for (Column c : columns.values())
+      {
+        out.writeUTF(c.name);
+        out.writeInt(c.firstStep);
+        out.writeInt(c.stride);
+        out.writeLong(c.count);
+        out.writeInt(c.used);
+
+        for (int b = 0; b < c.used; b++)
+          out.writeInt(c.blocks[b]);
+      }
+    }
+
+    File target = new File(dir, "index");
+
+    if (!index.renameTo(target))
+    {
+      target.delete();
+
+      if (!index.renameTo(target))
+        throw new IOException("Unable to write " + target);
+    }
+  }
+
+  /**
+   * Flush and release the store. Nb. the mappings are released when they
+   * are garbage collected.
+   *
+   * @throws IOException on write failure
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (closed)
+      return;
+
+    flush();
+    closed = true;
+
+    for (FileChannel fc : channels)
+      fc.close();
+
+    channels.clear();
+    segments.clear();
+    columns.clear();
+    byHandle = new Column[0];
+  }
+
+  /**
+   * @return directory store is held in
+   */
+  public File getDirectory()
+  {
+    return dir;
+  }
+}
@@ -17,12 +17,18 @@
 package statistics;
 
 import base.Base;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableMap;
 //import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 public class Statistic
 {
@@ -36,13 +42,83 @@ public class Statistic
 
   public  int  stepModulo = 1;             // Accumulate statistic over N steps
 
-  private LinkedList<Long> values  = new LinkedList<>();
-  public  LinkedList<Long> history = new LinkedList<>();
+  // AVERAGE accumulators for the current round. The mean is calculated
+  // from the sum, as before, and the variance with Welford's method.
+
+  private long   samples = 0;
+  private long   sum     = 0;
+  private double mean    = 0;
+  private double m2      = 0;
+  private long   min     = Long.MAX_VALUE;
+  private long   max     = Long.MIN_VALUE;
+
+  // Series derived from an AVERAGE statistic, created when first asked
+  // for, and appended at its rollover from then on.
+
+  private static final String[] MOMENTS = {"min", "max", "stddev"};
+
+  private Statistic s_min, s_max, s_stddev;
+  private Statistic parent = null;       // Statistic series is derived from
+
+  // History is a ring buffer of the last historyLength values, grown as
+  // needed up to historyLength, so that rollover does not allocate once
+  // it is full.
+
+  private long[] history = new long[0];
+  private int    first   = 0;              // Index of oldest value
+  private int    held    = 0;              // No. of values in history
 
   public static int historyLength = 120; // Keep last 120 values for ref
 
-  public static HashMap<String, Statistic>       names    = new HashMap<>();  // Common directory
-  public static ObservableMap<String, Statistic> obsNames = FXCollections.observableMap(names);
+  // Downsampled history, by month and year, kept for the whole run up to
+  // SeriesLevel.LENGTH periods whatever historyLength is.
+
+  private SeriesLevel months, years;
+  private int         lastStep = -1;       // Step of last value appended
+
+  public static HashMap<String, Statistic> names = new HashMap<>();  // Common directory
+
+  // Every statistic is given an integer handle when it is registered,
+  // indexing the registry. Handles of removed statistics are reused, so
+  // the registry stays dense and rolloverAll() is a loop over an array.
+
+  private int handle;
+
+  private static Statistic[] registry   = new Statistic[1024];
+  private static int         registered = 0;     // Handles issued
+  private static int[]       free       = new int[64];
+  private static int         freed      = 0;     // Handles to reuse
+
+  // Notified of newly registered statistics, in batches, at the next
+  // rollover or notifyListeners(). Kept as a plain list rather than an FX
+  // observable so that headless runs never touch javafx. The registry,
+  // pending and listeners are guarded by Statistic.class, as statistics
+  // may be created on the FX thread while the simulation thread rolls
+  // over.
+
+  private static ArrayList<Consumer<List<Statistic>>> listeners
+    = new ArrayList<>();
+  private static ArrayList<Statistic> pending = new ArrayList<>();
+
+  // Optional record of every value appended by every named statistic, for
+  // the whole run, independent of historyLength.
+
+  private static SeriesStore store = null;
+
+  // Optional csv stream of selected statistics, one row per rollover.
+
+  private static StatisticExporter exporter = null;
+
+  // Statistics which only report on the simulation, and are expensive to
+  // compute, are declared lazy by the code which computes them. With lazy
+  // evaluation on, a lazy statistic is only computed and rolled over while
+  // it is wanted: while something subscribes to it (an enabled chart, an
+  // exporter, the CLI) or every statistic is being recorded.
+
+  private boolean lazy        = false;
+  private int     subscribers = 0;
+
+  public static boolean lazyEvaluation = false;
 
   /*
    * Interface to the statistics is statistic.add(value). The operation
@@ -50,7 +126,11 @@ public class Statistic
    * as below:
    *
    * COUNTER   All values are summed.
-   * AVERAGE   All add operations for each step are averaged together
+   * AVERAGE   All add operations for each step are averaged together.
+   *           The minimum, maximum and standard deviation of the values
+   *           added are available as derived statistics, name:min,
+   *           name:max and name:stddev, created when first asked for by
+   *           getMin() etc. or by name (see resolve()).
    * SINGLE    Statistic represents a single value/round. If multiple
    *           adds occur in the same round the previous value will be
    *           overwritten.
@@ -83,13 +163,29 @@ public class Statistic
 
     // Remove statistic if it is already in the list, and replace
 
-    if (obsNames.get(name) != null)
+    if (names.get(name) != null)
       removeStatistic(name);
 
     // All statistics must be held in list, in order for rollover to
     // work - chart controller must select correct stats for display.
 
-    obsNames.put(name, this);
+    names.put(name, this);
+    register(this);
+  }
+
+  /**
+   * Create a statistic derived from this one. Derived statistics are not
+   * in a group, and are only added to at this statistic's rollover.
+   *
+   * @param suffix appended to this statistic's name
+   * @return statistic
+   */
+  private Statistic derive(String suffix)
+  {
+    Statistic s = new Statistic(name + ":" + suffix, null, Type.SINGLE);
+
+    s.parent = this;
+    return s;
   }
 
   /**
@@ -103,6 +199,79 @@ public class Statistic
     this(name, null, t);
   }
 
+  /**
+   * Constructor for a statistic which is not in the directory
+   */
+  private Statistic(String n, Type t, boolean unregistered)
+  {
+    name   = n;
+    group  = null;
+    type   = t;
+    handle = -1;
+
+    currentStep = Base.step;
+  }
+
+  /**
+   * Create a statistic which is not in the directory, and so is not rolled
+   * over, recorded, exported or passed to the listeners, e.g. to chart
+   * values from outside the simulation. Its owner adds to it and rolls it
+   * over.
+   *
+   * @param name label for statistic
+   * @param t    type of statistic
+   * @return statistic
+   */
+  public static Statistic unregistered(String name, Type t)
+  {
+    return new Statistic(name, t, true);
+  }
+
+  /**
+   * Issue statistic with a handle, and queue it for the listeners.
+   *
+   * @param s New statistic
+   */
+  private static synchronized void register(Statistic s)
+  {
+    if (freed > 0)
+      s.handle = free[--freed];
+    else
+    {
+      if (registered == registry.length)
+        registry = Arrays.copyOf(registry, registered * 2);
+
+      s.handle = registered++;
+    }
+
+    registry[s.handle] = s;
+
+    if (!listeners.isEmpty())
+      pending.add(s);
+  }
+
+  /**
+   * Return handle for this statistic. Valid until the statistic is
+   * removed, or the statistics are reset.
+   *
+   * @return handle
+   */
+  public int getHandle()
+  {
+    return handle;
+  }
+
+  /**
+   * Return statistic by handle.
+   *
+   * @param handle Handle from getHandle()
+   * @return Statistic or null if it has been removed
+   */
+  public static synchronized Statistic lookup(int handle)
+  {
+    return handle >= 0 && handle < registry.length ? registry[handle] : null;
+  }
+
   /**
    * Return statistics with specified name.
    *
@@ -113,8 +282,10 @@ public class Statistic
    */
   public static Statistic getStatistic(String name, String group, Type t)
   {
-    if (obsNames.get(name) != null)
-      return obsNames.get(name);
+    Statistic s = getStatistic(name);
+
+    if (s != null)
+      return s;
     else if (group != null)
     {
       return new Statistic(name, group, t);
@@ -157,28 +328,81 @@ public class Statistic
 
   public static Statistic getStatistic(String name)
   {
-    if (obsNames.get(name) != null)
-      return obsNames.get(name);
-    else
-      return null;
+    return names.get(name);
   }
 
   /**
-   * Return the value for the statistic for the last round. Note: current
-   * round may not yet be completely accumulated.
+   * Return statistic by name, creating the series derived from an AVERAGE
+   * statistic (name:min etc.) if it has not been, e.g. for a name from
+   * selectable().
    *
-   * @return last round's value
+   * @param   name  Name of statistic or derived series
+   * @return  Statistic or null if no match
    */
-  public long get()
+  public static Statistic resolve(String name)
   {
-    try
+    Statistic s = names.get(name);
+
+    if (s != null || name == null)
+      return s;
+
+    for (int m = 0; m < MOMENTS.length; m++)
     {
-      return history.getLast();
+      int i = name.length() - MOMENTS[m].length() - 1;
+
+      if (i > 0 && name.charAt(i) == ':' && name.endsWith(MOMENTS[m]))
+      {
+        Statistic base = names.get(name.substring(0, i));
+
+        if (base == null || base.type != Type.AVERAGE)
+          return null;
+
+        return m == 0 ? base.getMin() : m == 1 ? base.getMax()
+                                               : base.getStdDev();
+      }
     }
-    catch (Exception NoSuchElementException)
+    return null;
+  }
+
+  /**
+   * Return the names of the statistics, and of the series which could be
+   * derived from AVERAGE statistics but have not been, e.g. to select
+   * statistics by pattern. resolve() returns any of them.
+   *
+   * @return names
+   */
+  static ArrayList<String> selectable()
+  {
+    ArrayList<String> selected = new ArrayList<>(names.size());
+
+    for (Statistic s : names.values())
     {
-      return 0;
+      if (s.name == null)
+        continue;
+
+      selected.add(s.name);
+
+      if (s.type == Type.AVERAGE)
+      {
+        Statistic[] d = {s.s_min, s.s_max, s.s_stddev};
+
+        for (int i = 0; i < MOMENTS.length; i++)
+          if (d[i] == null)
+            selected.add(s.name + ":" + MOMENTS[i]);
+      }
     }
+    return selected;
+  }
+
+  /**
+   * Return the value for the statistic for the last round. Note: current
+   * round may not yet be completely accumulated.
+   *
+   * @return last round's value
+   */
+  public long get()
+  {
+    return held == 0 ? 0 : at(held - 1);
   }
 
   /**
@@ -194,10 +418,126 @@ public class Statistic
    {
       return value;
    }
+
+  /**
+   * @return history of the minimum value added each round, from the first
+   *         call, for AVERAGE statistics, otherwise null
+   */
+  public Statistic getMin()
+  {
+    if (s_min == null && type == Type.AVERAGE)
+      s_min = derive(MOMENTS[0]);
+
+    return s_min;
+  }
+
+  /**
+   * @return history of the maximum value added each round, from the first
+   *         call, for AVERAGE statistics, otherwise null
+   */
+  public Statistic getMax()
+  {
+    if (s_max == null && type == Type.AVERAGE)
+      s_max = derive(MOMENTS[1]);
+
+    return s_max;
+  }
+
+  /**
+   * @return history of the (population) standard deviation of the values
+   *         added each round, from the first call, for AVERAGE statistics,
+   *         otherwise null
+   */
+  public Statistic getStdDev()
+  {
+    if (s_stddev == null && type == Type.AVERAGE)
+      s_stddev = derive(MOMENTS[2]);
+
+    return s_stddev;
+  }
   
 
   /**
-   * Return history value from linked list, indexes go back relative to last
+   * Declare statistic as lazy, i.e. it only reports on the simulation and
+   * need not be computed unless it is wanted.
+   *
+   * @param lazy t/f lazy
+   * @return this statistic
+   */
+  public Statistic setLazy(boolean lazy)
+  {
+    this.lazy = lazy;
+    return this;
+  }
+
+  public boolean isLazy()
+  {
+    return lazy;
+  }
+
+  /**
+   * Return whether the statistic should be computed this step. Code
+   * computing a lazy statistic checks this before doing so.
+   *
+   * @return t/f statistic is wanted
+   */
+  public boolean wanted()
+  {
+    return !lazy || !lazyEvaluation || subscribers > 0 || store != null
+           || subscribed(s_min) || subscribed(s_max) || subscribed(s_stddev);
+  }
+
+  private static boolean subscribed(Statistic s)
+  {
+    return s != null && s.subscribers > 0;
+  }
+
+  /**
+   * Register interest in the statistic's values. Each subscribe() is
+   * matched by an unsubscribe().
+   */
+  public void subscribe()
+  {
+    subscribers++;
+  }
+
+  public void unsubscribe()
+  {
+    if (subscribers > 0)
+      subscribers--;
+  }
+
+  /**
+   * Subscribe to (or unsubscribe from) all statistics whose names match a
+   * regular expression.
+   *
+   * @param regex     Regular expression
+   * @param subscribe t/f subscribe
+   * @return no. of statistics matched
+   */
+  public static int subscribe(String regex, boolean subscribe)
+  {
+    Pattern p = Pattern.compile(regex);
+    int     n = 0;
+
+    for (String name : selectable())
+    {
+      Statistic s = p.matcher(name).matches() ? resolve(name) : null;
+
+      if (s != null)
+      {
+        if (subscribe)
+          s.subscribe();
+        else
+          s.unsubscribe();
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Return history value from ring buffer, indexes go back relative to last
    * value added. ie. 0 is last round, 1 is round before last, etc.
    *
    * @param n position in list to return. If n is greater than the history size 
@@ -207,12 +547,12 @@ public class Statistic
 
   public long get(int n)
   {
-    if (history.size() == 0) // No history
+    if (held == 0) // No history
       return 0;
-    if (n >= history.size())
-      return history.getFirst();
+    if (n >= held)
+      return at(0);
     else
-      return history.get(history.size() - 1 - n);
+      return at(held - 1 - n);
   }
 
   /**
@@ -222,7 +562,94 @@ public class Statistic
    */
   public int size()
   {
-    return history.size();
+    return held;
+  }
+
+  /**
+   * Return a copy of the statistic's history, oldest first.
+   *
+   * @return history values
+   */
+  public long[] getHistory()
+  {
+    long[] values = new long[held];
+
+    getHistory(values);
+    return values;
+  }
+
+  /**
+   * Copy the most recent values in the statistic's history into an array,
+   * oldest first, so that a caller can reuse its buffer between steps.
+   *
+   * @param dest Array to copy to, up to dest.length values are copied
+   * @return no. of values copied
+   */
+  public int getHistory(long[] dest)
+  {
+    int n    = Math.min(held, dest.length);
+    int from = index(held - n);
+    int tail = Math.min(n, history.length - from);
+
+    System.arraycopy(history, from, dest, 0, tail);
+    System.arraycopy(history, 0, dest, tail, n - tail);
+
+    return n;
+  }
+
+  /**
+   * Return the statistic's history at a resolution, oldest first: every
+   * value (DAY, as getHistory()), or the mean of each month or year.
+   *
+   * @param resolution Base.Time.DAY, MONTH or YEAR
+   * @return history values
+   */
+  public long[] getHistory(Base.Time resolution)
+  {
+    SeriesLevel level = level(resolution);
+
+    if (level == null)
+      return resolution == Base.Time.DAY ? getHistory() : new long[0];
+
+    long[] values = new long[level.size()];
+
+    level.copy(values);
+    return values;
+  }
+
+  /**
+   * @param resolution Base.Time.DAY, MONTH or YEAR
+   * @return no. of values held at resolution
+   */
+  public int size(Base.Time resolution)
+  {
+    SeriesLevel level = level(resolution);
+
+    return level != null ? level.size()
+                         : resolution == Base.Time.DAY ? held : 0;
+  }
+
+  /**
+   * @param resolution Base.Time.DAY, MONTH or YEAR
+   * @return step of the newest value at resolution (the end of its
+   *         period for months and years), -1 if none
+   */
+  public int getLastStep(Base.Time resolution)
+  {
+    SeriesLevel level = level(resolution);
+
+    return level != null ? level.lastStep()
+                         : resolution == Base.Time.DAY ? lastStep : -1;
+  }
+
+  private SeriesLevel level(Base.Time resolution)
+  {
+    switch (resolution)
+    {
+      case MONTH: return months;
+      case YEAR:  return years;
+      default:    return null;
+    }
   }
 
   /**
@@ -235,7 +662,7 @@ public class Statistic
 
   public boolean shrinking(int n)
   {
-    return n < history.size() && history.getLast() < get(n);
+    return n < held && get() < get(n);
   }
 
   /**
@@ -248,7 +675,7 @@ public class Statistic
 
   public boolean increasing(int n)
   {
-    return n < history.size() && history.getLast() > get(n);
+    return n < held && get() > get(n);
   }
 
   public void inc()
@@ -270,7 +697,15 @@ public class Statistic
         break;
 
       case AVERAGE:
-        values.add(stat);
+        double delta = stat - mean;
+
+        samples++;
+        sum  += stat;
+        mean += delta / samples;
+        m2   += delta * (stat - mean);
+
+        if (stat < min) min = stat;
+        if (stat > max) max = stat;
         break;
 
       case SINGLE:
@@ -285,9 +720,13 @@ public class Statistic
 
   public void reset()
   {
-    values.clear();
-	history.clear();
-    value = 0;
+    clearSamples();
+    first    = 0;
+    held     = 0;
+    value    = 0;
+    months   = null;
+    years    = null;
+    lastStep = -1;
 
     currentStep = Base.step;
   }
@@ -299,54 +738,158 @@ public class Statistic
 
   public void rollover()
   {
-
-    if((Base.step % stepModulo) == 0)
+    if (lazy && !wanted())
     {
-	    long avg = 0;
+      clearSamples();
+      value = 0;
+      return;
+    }
 
+    if((Base.step % stepModulo) == 0 && parent == null)
+    {
 		switch (type)
 		{
 		  case COUNTER:
 		  case SINGLE:
-			//if (value == 0 && history.size() > 0)
-			//   history.add(history.getLast());
+			//if (value == 0 && held > 0)
+			//   append(get());
 			//else
-			history.add(value);
+			append(value);
 			break;
 
 		  case AVERAGE:
-			for (Long v : values)
-			{
-                avg += v;
-            }
-
-            if (values.size() > 0)
-              history.add(avg / values.size());
-            else
-              history.add(0L);
+            append(samples > 0 ? sum / samples : 0L);
 
+            if (s_min != null)
+              s_min.append(samples > 0 ? min : 0L);
+            if (s_max != null)
+              s_max.append(samples > 0 ? max : 0L);
+            if (s_stddev != null)
+              s_stddev.append(samples > 0 ? Math.round(Math.sqrt(m2 / samples))
+                                          : 0L);
             break;
 
           case NUMBER:
-              history.add(value);
+              append(value);
               break; 
 		}
 
         if(type != Type.NUMBER)
         {
-           values.clear();
+           clearSamples();
            value = 0;
         }
+    }
+  }
+
+  private void clearSamples()
+  {
+    samples = 0;
+    sum     = 0;
+    mean    = 0;
+    m2      = 0;
+    min     = Long.MAX_VALUE;
+    max     = Long.MIN_VALUE;
+  }
 
-        if (history.size() > historyLength)
-            history.removeFirst();
+  /**
+   * Add value to history, dropping the oldest values beyond historyLength.
+   *
+   * @param v value
+   */
+  private void append(long v)
+  {
+    if (store != null && name != null && handle >= 0)
+      store.append(this, v);
+
+    if (months == null)
+    {
+      months = new SeriesLevel(Base.Time.MONTH.period());
+      years  = new SeriesLevel(Base.Time.YEAR.period());
+    }
+
+    months.add(Base.step, v);
+    years.add(Base.step, v);
+    lastStep = Base.step;
+
+    if (held == history.length && held < historyLength)
+      grow();
+
+    if (held < history.length)
+      history[index(held++)] = v;
+    else if (held > 0)
+    {
+      history[first] = v;                 // Overwrite oldest
+      first = index(1);
+    }
+
+    // historyLength may have been reduced
+
+    if (held > historyLength)
+    {
+      int drop = held - Math.max(0, historyLength);
+
+      first = index(drop);
+      held -= drop;
     }
   }
 
+  /**
+   * Grow history buffer, up to historyLength.
+   */
+  private void grow()
+  {
+    long[] buffer = new long[(int) Math.min(historyLength,
+                                            Math.max(16L, 2L * history.length))];
+
+    getHistory(buffer);
+
+    history = buffer;
+    first   = 0;
+  }
+
+  /**
+   * @param i position in history, 0 is oldest
+   * @return index of position in history buffer
+   */
+  private int index(int i)
+  {
+    int n = first + i;
+
+    return n >= history.length ? n - history.length : n;
+  }
+
+  /**
+   * @param i position in history, 0 is oldest
+   * @return value at position
+   */
+  private long at(int i)
+  {
+    return history[index(i)];
+  }
+
 
   public static void rolloverAll()
   {
-    names.values().forEach(statistics.Statistic::rollover);
+    notifyListeners();
+
+    Statistic[] r;
+    int         n;
+
+    synchronized (Statistic.class)
+    {
+      r = registry;
+      n = registered;
+    }
+
+    for (int i = 0; i < n; i++)
+    {
+      if (r[i] != null)
+        r[i].rollover();
+    }
+
+    if (exporter != null)
+      exporter.row();
   }
 
   /**
@@ -355,10 +898,128 @@ public class Statistic
 
   public static void resetAll()
   {
+    setStore(null);                  // Recording covers a single run
+    setExporter(null);
+
     for(Statistic s : names.values())
         s.reset();
 
-    obsNames.clear();
+    names.clear();
+
+    synchronized (Statistic.class)
+    {
+      Arrays.fill(registry, 0, registered, null);
+      registered = 0;
+      freed      = 0;
+      pending.clear();
+    }
+  }
+
+  /**
+   * Record every value of every statistic from now on in a store,
+   * closing the store previously set, if any.
+   *
+   * @param s Store, or null to stop recording
+   */
+  public static void setStore(SeriesStore s)
+  {
+    if (store != null && store != s)
+    {
+      try
+      {
+        store.close();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Failed to close series store "
+                           + store.getDirectory() + ": " + e);
+      }
+    }
+    store = s;
+  }
+
+  /**
+   * @return store statistics are recorded in, null if not recording
+   */
+  public static SeriesStore getStore()
+  {
+    return store;
+  }
+
+  /**
+   * Stream selected statistics to csv at every rollover from now on,
+   * closing the exporter previously set, if any.
+   *
+   * @param e Exporter, or null to stop exporting
+   */
+  public static void setExporter(StatisticExporter e)
+  {
+    if (exporter != null && exporter != e)
+    {
+      try
+      {
+        exporter.close();
+      }
+      catch (IOException x)
+      {
+        System.err.println("Failed to export statistics to "
+                           + exporter.getFile() + ": " + x);
+      }
+    }
+    exporter = e;
+  }
+
+  /**
+   * @return exporter statistics are streamed to, null if not exporting
+   */
+  public static StatisticExporter getExporter()
+  {
+    return exporter;
+  }
+
+  /**
+   * Register a listener to be called with the statistics added to the
+   * directory since it was last called, at the start of each rollover.
+   * Used by the chart controllers to attach new statistics to charts by
+   * group.
+   *
+   * @param listener Called with each batch of newly registered statistics
+   */
+
+  public static synchronized void addListener(Consumer<List<Statistic>> listener)
+  {
+    listeners.add(listener);
+  }
+
+  /**
+   * Pass statistics registered since the last notification to the
+   * listeners. Statistics removed in the meantime are not passed.
+   */
+
+  public static void notifyListeners()
+  {
+    ArrayList<Statistic> batch;
+    ArrayList<Consumer<List<Statistic>>> notify;
+
+    synchronized (Statistic.class)
+    {
+      if (pending.isEmpty())
+        return;
+
+      batch = new ArrayList<>(pending.size());
+
+      for (Statistic s : pending)
+      {
+        if (registry[s.handle] == s)
+          batch.add(s);
+      }
+      pending.clear();
+
+      notify = new ArrayList<>(listeners);
+    }
+
+    for (Consumer<List<Statistic>> listener : notify)
+      listener.accept(batch);
   }
 
   /**
@@ -369,13 +1030,95 @@ public class Statistic
 
   public static void removeStatistic(String name)
   {
-    obsNames.remove(name);
+    Statistic s = names.remove(name);
+
+    if (s == null)
+      return;
+
+    release(s);
+
+    // Derived series go with their statistic; one removed on its own is
+    // no longer appended to.
+
+    for (Statistic d : new Statistic[] {s.s_min, s.s_max, s.s_stddev})
+    {
+      if (d != null)
+      {
+        names.remove(d.name, d);
+        release(d);
+      }
+    }
+
+    if (s.parent != null)
+    {
+      if (s.parent.s_min == s)    s.parent.s_min = null;
+      if (s.parent.s_max == s)    s.parent.s_max = null;
+      if (s.parent.s_stddev == s) s.parent.s_stddev = null;
+    }
   }
 
-  public static void saveToCsv(String Filename)
+  /**
+   * Free statistic's handle for reuse.
+   */
+  private static synchronized void release(Statistic s)
   {
-    // TODO: Implement this
-    System.out.println("tbd: saveToCsv");
+    if (registry[s.handle] != s)
+      return;
+
+    registry[s.handle] = null;
+
+    if (store != null)
+      store.release(s.handle);
+
+    if (freed == free.length)
+      free = Arrays.copyOf(free, freed * 2);
+
+    free[freed++] = s.handle;
+  }
+
+  /**
+   * Save the history of all statistics to file, one statistic per line
+   * in the same format as chart csv files: name;value;value;...
+   *
+   * @param filename File to write
+   * @throws IOException on write failure
+   */
+  public static void saveToCsv(String filename) throws IOException
+  {
+    saveToCsv(filename, Base.Time.DAY);
+  }
+
+  /**
+   * Save the history of all statistics at a resolution (see
+   * getHistory(Base.Time)), in the same format as saveToCsv(filename).
+   *
+   * @param filename   File to write
+   * @param resolution Base.Time.DAY, MONTH or YEAR
+   * @throws IOException on write failure
+   */
+  public static void saveToCsv(String filename, Base.Time resolution)
+    throws IOException
+  {
+    ArrayList<String> sorted = new ArrayList<>(names.keySet());
+
+    sorted.remove(null);             // Nb. statistics may have no name
+    Collections.sort(sorted);
+
+    try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename)))
+    {
+      for (String name : sorted)
+      {
+        bw.write(name);
+        bw.write(';');
+
+        for (long v : names.get(name).getHistory(resolution))
+        {
+          bw.write(Long.toString(v));
+          bw.write(';');
+        }
+        bw.write('\n');
+      }
+    }
   }
 }
 
@@ -0,0 +1,268 @@
+/* Program           : Threadneedle
+ *
+ * StatisticExporter : Stream the values of selected statistics to a csv
+ *                     file, one row per rollover.
+ *
+ *   step;name1;name2;...
+ *   1;v1;v2;...
+ *
+ * The statistics are selected by regular expressions on their names when
+ * the exporter is created (all named statistics if none are given, which
+ * does not include derived series which have not been asked for), and
+ * each row holds their values for the round just rolled over (see
+ * Statistic.setExporter()). The exporter subscribes to its statistics, so
+ * that lazy statistics are computed for it.
+ *
+ * The simulation thread only copies the values into a recycled row, which
+ * is formatted and written by a background thread through a buffered, and
+ * if the file name ends in .gz, gzip compressed, stream. Rows are queued
+ * up to QUEUE deep; the simulation waits only if the writer falls that
+ * far behind, and the number of times it did is reported on close.
+ *
+ * Author            : Jacky Mallett
+ * Date              : October 2026
+ *
+ * Threadneedle is provided free for non-commercial research purposes under
+ * the creative commons Attribution-NonCommercial-NoDerivatives 4.0
+ * International License:
+ *
+ * https://creativecommons.org/licenses/by-nc-nd/4.0/
+ */
+package statistics;
+
+import base.Base;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+public class StatisticExporter implements Closeable
+{
+  private static final int QUEUE  = 4096;              // Rows in flight
+  private static final int BUFFER = 1 << 16;
+
+  private final File        file;
+  private final String[]    names;
+  private final Statistic[] stats;
+
+  private final ArrayBlockingQueue<long[]> rows;
+  private final ArrayBlockingQueue<long[]> spare;
+  private final long[]                     end = new long[0];  // Last row
+
+  private final Thread      writer;
+  private volatile IOException error = null;
+
+  private long written = 0;                            // Rows queued
+  private long stalls  = 0;                            // Times queue was full
+
+  /**
+   * Constructor - select statistics and start the writer.
+   *
+   * @param file     File to write, gzip compressed if it ends in .gz
+   * @param patterns Regular expressions matched against statistic names,
+   *                 none for all named statistics
+   * @throws IOException if the file cannot be created
+   */
+  public StatisticExporter(File file, String... patterns) throws IOException
+  {
+    ArrayList<Pattern> regex    = new ArrayList<>();
+    ArrayList<String>  selected = new ArrayList<>();
+
+    for (String p : patterns)
+      regex.add(Pattern.compile(p));
+
+    // Patterns may also select the series derived from AVERAGE statistics,
+    // which are created here if they have not been.
+
+    for (String name : regex.isEmpty() ? Statistic.names.keySet()
+                                       : Statistic.selectable())
+    {
+      if (name != null && matches(regex, name))
+        selected.add(name);
+    }
+    Collections.sort(selected);
+
+    this.file  = file;
+    this.names = selected.toArray(new String[selected.size()]);
+    this.stats = new Statistic[names.length];
+
+    for (int i = 0; i < names.length; i++)
+    {
+      stats[i] = Statistic.resolve(names[i]);
+      stats[i].subscribe();
+    }
+
+    rows  = new ArrayBlockingQueue<>(QUEUE);
+    spare = new ArrayBlockingQueue<>(QUEUE + 1);
+
+    OutputStream out = new FileOutputStream(file);
+
+    if (file.getName().endsWith(".gz"))
+      out = new GZIPOutputStream(out, BUFFER);
+
+    final Writer w = new BufferedWriter(new OutputStreamWriter(out), BUFFER);
+
+    writer = new Thread(() -> write(w), "StatisticExporter " + file.getName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private static boolean matches(ArrayList<Pattern> regex, String name)
+  {
+    if (regex.isEmpty())
+      return true;
+
+    for (Pattern p : regex)
+    {
+      if (p.matcher(name).matches())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return no. of statistics exported
+   */
+  public int size()
+  {
+    return names.length;
+  }
+
+  /**
+   * Queue a row with the current value of each statistic. Called at the
+   * end of each rollover.
+   */
+  void row()
+  {
+    if (error != null)
+      return;
+
+    long[] row = spare.poll();
+
+    if (row == null)
+      row = new long[names.length + 1];
+
+    row[0] = Base.step;
+
+    for (int i = 0; i < stats.length; i++)
+    {
+      Statistic s = stats[i];
+
+      // Re-resolve statistics which have been replaced by name
+
+      if (s == null || Statistic.lookup(s.getHandle()) != s)
+      {
+        s = stats[i] = Statistic.resolve(names[i]);
+
+        if (s != null)
+          s.subscribe();
+      }
+
+      row[i + 1] = s == null ? 0 : s.get();
+    }
+
+    queue(row);
+    written++;
+  }
+
+  private void queue(long[] row)
+  {
+    if (!rows.offer(row))
+    {
+      stalls++;
+
+      try
+      {
+        rows.put(row);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Writer thread - format rows as they are queued until the end marker.
+   */
+  private void write(Writer w)
+  {
+    StringBuilder sb = new StringBuilder(16 * (names.length + 1));
+
+    try (Writer out = w)
+    {
+      sb.append("step");
+
+      for (String name : names)
+        sb.append(';').append(name);
+
+      out.append(sb).append('\n');
+
+      for (long[] row = rows.take(); row != end; row = rows.take())
+      {
+        sb.setLength(0);
+        sb.append(row[0]);
+
+        for (int i = 1; i < row.length; i++)
+          sb.append(';').append(row[i]);
+
+        out.append(sb).append('\n');
+        spare.offer(row);
+      }
+    }
+    catch (IOException e)
+    {
+      error = e;
+      rows.clear();
+    }
+    catch (InterruptedException e)
+    {
+      error = new InterruptedIOException("Export interrupted");
+    }
+  }
+
+  /**
+   * Write the remaining rows and close the file.
+   *
+   * @throws IOException if the file could not be written
+   */
+  @Override
+  public void close() throws IOException
+  {
+    for (Statistic s : stats)
+      if (s != null)
+        s.unsubscribe();
+
+    if (writer.isAlive())
+    {
+      queue(end);
+
+      try
+      {
+        writer.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (stalls > 0)
+      System.out.println("Exporter to " + file + " waited for writer " + stalls
+                         + " times in " + written + " rows");
+
+    if (error != null)
+      throw error;
+  }
+
+  /**
+   * @return file being written
+   */
+  public File getFile()
+  {
+    return file;
+  }
+}